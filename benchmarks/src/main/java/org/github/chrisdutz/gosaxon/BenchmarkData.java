@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param size "small" (about 2KB), "medium" (about 200KB) or "large" (about 20MB).
+     * @return an order document of the given size.
+     */
+    static byte[] document(String size) {
+        switch (size) {
+            case "small":
+                return orders(8);
+            case "medium":
+                return orders(800);
+            case "large":
+                return orders(80000);
+            default:
+                throw new IllegalArgumentException("Unknown document size: " + size);
+        }
+    }
+
+    /**
+     * @param name "simple" or "templates".
+     */
+    static byte[] stylesheet(String name) throws IOException {
+        try (InputStream inputStream = BenchmarkData.class.getResourceAsStream("/" + name + ".xslt")) {
+            if (inputStream == null) {
+                throw new IllegalArgumentException("Unknown stylesheet: " + name);
+            }
+            return inputStream.readAllBytes();
+        }
+    }
+
+    private static byte[] orders(int count) {
+        // Always the same content for the same size, so runs are comparable.
+        Random random = new Random(42);
+        String[] statuses = {"open", "shipped", "cancelled"};
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<orders>\n");
+        for (int i = 0; i < count; i++) {
+            int customer = random.nextInt(Math.max(1, count / 4));
+            sb.append("  <order id=\"").append(i).append("\" status=\"").append(statuses[random.nextInt(statuses.length)])
+                .append("\" date=\"2021-").append(String.format("%02d-%02d", 1 + random.nextInt(12), 1 + random.nextInt(28)))
+                .append("\">\n");
+            sb.append("    <customer id=\"c").append(customer).append("\"><name>Customer ").append(customer)
+                .append("</name></customer>\n");
+            for (int j = 0; j < 3; j++) {
+                sb.append("    <item sku=\"sku-").append(random.nextInt(1000)).append("\" quantity=\"")
+                    .append(1 + random.nextInt(10)).append("\" price=\"").append(random.nextInt(10000) / 100.0)
+                    .append("\"/>\n");
+            }
+            sb.append("  </order>\n");
+        }
+        sb.append("</orders>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
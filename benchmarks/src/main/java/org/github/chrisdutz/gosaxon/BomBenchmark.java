@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detecting and removing the byte order mark at the start of every input.
+ *
+ * Run with "java -jar benchmarks/target/benchmarks.jar BomBenchmark -prof gc" to see the allocations per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BomBenchmark {
+
+    @Param({"none", "utf-8", "utf-16le"})
+    public String bom;
+
+    private byte[] input;
+
+    @Setup
+    public void setUp() {
+        byte[] content = "<?xml version=\"1.0\"?><root/>".getBytes(StandardCharsets.UTF_8);
+        byte[] prefix;
+        switch (bom) {
+            case "utf-8":
+                prefix = new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+                break;
+            case "utf-16le":
+                prefix = new byte[]{(byte) 0xFF, (byte) 0xFE};
+                break;
+            default:
+                prefix = new byte[0];
+        }
+        input = new byte[prefix.length + content.length];
+        System.arraycopy(prefix, 0, input, 0, prefix.length);
+        System.arraycopy(content, 0, input, prefix.length, content.length);
+    }
+
+    @Benchmark
+    public String getEncodingFromBomAndRemoveBom() throws IOException {
+        PushbackInputStream inputStream = new PushbackInputStream(new ByteArrayInputStream(input), GoSaxonTransformer.MAX_BOM_LENGTH);
+        return GoSaxonTransformer.getEncodingFromBomAndRemoveBom(inputStream);
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a single-shot transformation of a small document, from starting the {@link GoSaxonTransformer} till it
+ * terminated, the same way its main method waits for it. For small documents this is dominated by the waiting done
+ * between the steps, so the percentiles show whether any polling or sleeping is left.
+ *
+ * Run with "java -jar benchmarks/target/benchmarks.jar SingleShotLatencyBenchmark" and compare the p0.50 values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SingleShotLatencyBenchmark {
+
+    private byte[] xml;
+    private byte[] xslt;
+
+    private PrintStream stdout;
+
+    @Setup
+    public void setUp() throws IOException {
+        xml = BenchmarkData.document("small");
+        xslt = BenchmarkData.stylesheet("simple");
+
+        // The single-shot transformer reports its status on stdout, which would end up in the results.
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public byte[] transform() throws Exception {
+        GoSaxonTransformer transformer = new GoSaxonTransformer(false);
+        int[] ports = transformer.getPorts();
+        try (Socket xmlConnection = new Socket("127.0.0.1", ports[0]);
+             Socket xsltConnection = new Socket("127.0.0.1", ports[1]);
+             Socket outputConnection = new Socket("127.0.0.1", ports[2])) {
+            try (OutputStream xsltOutputStream = xsltConnection.getOutputStream()) {
+                xsltOutputStream.write(xslt);
+            }
+            try (OutputStream xmlOutputStream = xmlConnection.getOutputStream()) {
+                xmlOutputStream.write(xml);
+            }
+            byte[] result = outputConnection.getInputStream().readAllBytes();
+            // The process would only exit now, so this is part of the latency.
+            transformer.awaitTermination();
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transformations of small, medium and large documents with a simple and a template-heavy stylesheet:
+ * <ul>
+ *     <li>engine: the transformation alone, in-process and with the compiled stylesheet cached.</li>
+ *     <li>singleShotRoundTrip: the full round trip of {@link GoSaxonTransformer#transform}, as done for every call
+ *     of the Go Transform function (three sockets, stylesheet compiled every time), minus the process start.</li>
+ *     <li>serverRoundTrip: a request to the {@link GoSaxonServer} on a connection that is kept open.</li>
+ * </ul>
+ *
+ * Run with "java -jar benchmarks/target/benchmarks.jar TransformBenchmark -prof gc" to see the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformBenchmark {
+
+    @Param({"small", "medium", "large"})
+    public String document;
+
+    @Param({"simple", "templates"})
+    public String stylesheet;
+
+    private byte[] xml;
+    private byte[] xslt;
+
+    private GoSaxonEngine engine;
+    private GoSaxonServer server;
+    private Socket connection;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private PrintStream stdout;
+
+    @Setup
+    public void setUp() throws IOException {
+        xml = BenchmarkData.document(document);
+        xslt = BenchmarkData.stylesheet(stylesheet);
+
+        engine = new GoSaxonEngine(GoSaxonOptions.parse(new String[]{"false"}));
+
+        server = new GoSaxonServer(GoSaxonOptions.parse(new String[]{"false", "--server"}));
+        Thread serverThread = new Thread(server::run);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        connection = new Socket("127.0.0.1", server.getPort());
+        connection.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+
+        // The single-shot transformer reports its status on stdout, which would end up in the results.
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        connection.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream engine() throws Exception {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        engine.transform(xml, xslt, result);
+        return result;
+    }
+
+    @Benchmark
+    public byte[] singleShotRoundTrip() throws Exception {
+        GoSaxonTransformer transformer = new GoSaxonTransformer(false);
+        int[] ports = transformer.getPorts();
+        // Same order as the Go client: connect all sockets, send the stylesheet and the document, read the result.
+        try (Socket xmlConnection = new Socket("127.0.0.1", ports[0]);
+             Socket xsltConnection = new Socket("127.0.0.1", ports[1]);
+             Socket outputConnection = new Socket("127.0.0.1", ports[2])) {
+            try (OutputStream xsltOutputStream = xsltConnection.getOutputStream()) {
+                xsltOutputStream.write(xslt);
+            }
+            try (OutputStream xmlOutputStream = xmlConnection.getOutputStream()) {
+                xmlOutputStream.write(xml);
+            }
+            byte[] result = outputConnection.getInputStream().readAllBytes();
+            transformer.awaitTermination();
+            return result;
+        }
+    }
+
+    @Benchmark
+    public byte[] serverRoundTrip() throws IOException {
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, xslt);
+        GoSaxonProtocol.writeBlock(out, xml);
+        out.flush();
+        if (in.readByte() != GoSaxonProtocol.STATUS_SUCCESS) {
+            throw new IOException("Transformation failed");
+        }
+        return GoSaxonProtocol.readBlock(in);
+    }
+
+}
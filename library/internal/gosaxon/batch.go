@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package gosaxon
+
+import (
+	"bufio"
+	"errors"
+)
+
+// endMarker terminates the documents of a batch request (a block length of -1).
+var endMarker = []byte{0xFF, 0xFF, 0xFF, 0xFF}
+
+// BatchResult is the outcome of transforming a single document of a batch.
+type BatchResult struct {
+	// Index is the position of the document in the order it was received from the documents channel.
+	Index  int
+	Output []byte
+	Err    error
+}
+
+// TransformBatch transforms all documents received from the documents channel using the same stylesheet,
+// which is compiled only once. The documents are streamed to the transformer while the results are read,
+// so the transformer works on several documents of the batch in parallel.
+// The results are sent to the results channel in the order of the documents, each with its own error
+// (e.g. ErrTimeout, if the transformation of that document took too long). Documents aren't rejected as busy,
+// the transformer waits for a free worker instead, which in turn blocks sending further documents.
+// The results channel is closed, when all results have been sent.
+// TransformBatch returns once the documents channel has been closed and all results have been sent, so the
+// documents have to be sent and the results received from other goroutines. An error is only returned, if the
+// batch failed as a whole, e.g. because the stylesheet didn't compile or the connection broke.
+func (m *Session) TransformBatch(stylesheet []byte, documents <-chan []byte, results chan<- BatchResult) error {
+	defer close(results)
+
+	conn, err := m.acquire()
+	if err != nil {
+		drain(documents)
+		return err
+	}
+
+	writeErrors := make(chan error, 1)
+	go func() {
+		err := writeBatch(conn.writer, stylesheet, documents)
+		if err != nil {
+			// Make sure reading the response is aborted, as it won't be complete.
+			_ = conn.conn.Close()
+			drain(documents)
+		}
+		writeErrors <- err
+	}()
+
+	for {
+		status, index, payload, err := readBatchItem(conn.reader)
+		if err != nil {
+			m.discard(conn)
+			if writeErr := <-writeErrors; writeErr != nil {
+				return errors.New("error writing batch: " + writeErr.Error())
+			}
+			return err
+		}
+		if index == -1 {
+			// The server only sends the final item after it read the end marker, so the writer is done.
+			if err = <-writeErrors; err != nil {
+				_ = conn.conn.Close()
+				return errors.New("error writing batch: " + err.Error())
+			}
+			m.release(conn)
+			return statusError(status, payload)
+		}
+		if err = statusError(status, payload); err != nil {
+			results <- BatchResult{Index: index, Err: err}
+		} else {
+			results <- BatchResult{Index: index, Output: payload}
+		}
+	}
+}
+
+func writeBatch(writer *bufio.Writer, stylesheet []byte, documents <-chan []byte) error {
+	if err := writer.WriteByte(opBatch); err != nil {
+		return err
+	}
+	if err := writeBlock(writer, stylesheet); err != nil {
+		return err
+	}
+	for document := range documents {
+		if err := writeBlock(writer, document); err != nil {
+			return err
+		}
+		// Only flush, if there's no further document ready to be sent.
+		if len(documents) == 0 {
+			if err := writer.Flush(); err != nil {
+				return err
+			}
+		}
+	}
+	if _, err := writer.Write(endMarker); err != nil {
+		return err
+	}
+	return writer.Flush()
+}
+
+// drain consumes the remaining documents, so the sender doesn't block forever.
+func drain(documents <-chan []byte) {
+	for range documents {
+	}
+}
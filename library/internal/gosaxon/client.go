@@ -20,12 +20,15 @@
 package gosaxon
 
 import (
+	"bytes"
+	"context"
 	"encoding/binary"
 	"encoding/hex"
 	"errors"
 	"fmt"
 	"net"
 	"strconv"
+	"time"
 )
 
 type Client struct {
@@ -52,6 +55,14 @@ func NewClientWithExecutable(executablePath string) *Client {
 }
 
 func (m *Client) Transform(inputXml []byte, stylesheet []byte) ([]byte, error) {
+	return m.TransformContext(context.Background(), inputXml, stylesheet)
+}
+
+// TransformContext is the same as Transform, but stops the transformer as soon as the context is done.
+func (m *Client) TransformContext(ctx context.Context, inputXml []byte, stylesheet []byte) ([]byte, error) {
+	if err := ctx.Err(); err != nil {
+		return nil, err
+	}
 	transformer := NewTransformer()
 	// First we have to start the transformer so we can communicate with it.
 	portInformation, err := transformer.Start(m.executablePath, m.debug)
@@ -63,16 +74,19 @@ func (m *Client) Transform(inputXml []byte, stylesheet []byte) ([]byte, error) {
 	// Each is 8 characters long encoded as a hex string.
 	xmlPortBytes, err := hex.DecodeString(portInformation[0:8])
 	if err != nil {
+		_ = transformer.Stop()
 		return nil, errors.New("got error decoding the xml port number: " + err.Error())
 	}
 	xmlPort := binary.BigEndian.Uint32(xmlPortBytes)
 	xsltPortBytes, err := hex.DecodeString(portInformation[8:16])
 	if err != nil {
+		_ = transformer.Stop()
 		return nil, errors.New("got error decoding the xslt port number: " + err.Error())
 	}
 	xsltPort := binary.BigEndian.Uint32(xsltPortBytes)
 	outPortBytes, err := hex.DecodeString(portInformation[16:24])
 	if err != nil {
+		_ = transformer.Stop()
 		return nil, errors.New("got error decoding the out port number: " + err.Error())
 	}
 	outPort := binary.BigEndian.Uint32(outPortBytes)
@@ -80,58 +94,90 @@ func (m *Client) Transform(inputXml []byte, stylesheet []byte) ([]byte, error) {
 	// Open sockets to 127.0.0.1 on the given ports
 	xmlConn, err := net.Dial("tcp", "127.0.0.1:"+strconv.Itoa(int(xmlPort)))
 	if err != nil {
+		_ = transformer.Stop()
 		return nil, errors.New("got error opening connection to xml port: " + err.Error())
 	}
 	xsltConn, err := net.Dial("tcp", "127.0.0.1:"+strconv.Itoa(int(xsltPort)))
 	if err != nil {
+		_ = xmlConn.Close()
+		_ = transformer.Stop()
 		return nil, errors.New("got error opening connection to xslt port: " + err.Error())
 	}
 	outConn, err := net.Dial("tcp", "127.0.0.1:"+strconv.Itoa(int(outPort)))
 	if err != nil {
+		_ = xmlConn.Close()
+		_ = xsltConn.Close()
+		_ = transformer.Stop()
 		return nil, errors.New("got error opening connection to out port: " + err.Error())
 	}
 
+	// Unblock any read or write, as soon as the context is done.
+	finished := make(chan struct{})
+	defer close(finished)
+	go func() {
+		select {
+		case <-ctx.Done():
+			for _, conn := range []net.Conn{xsltConn, xmlConn, outConn} {
+				_ = conn.SetDeadline(time.Now())
+			}
+		case <-finished:
+		}
+	}()
+
+	// Don't leave the transformer running, if the content couldn't be sent (e.g. because the context was done).
+	abort := func(err error) ([]byte, error) {
+		_ = transformer.Stop()
+		if ctx.Err() != nil {
+			return nil, ctx.Err()
+		}
+		return nil, err
+	}
+
 	// Send the content
 	var bytesWritten int
 	bytesWritten, err = xsltConn.Write(stylesheet)
 	if err != nil {
-		return nil, errors.New("error writing stylesheet: " + err.Error())
+		return abort(errors.New("error writing stylesheet: " + err.Error()))
 	} else if bytesWritten != len(stylesheet) {
-		return nil, errors.New(fmt.Sprintf("error writing all bytes of stylesheet. Only %d of %d bytes were writeren", bytesWritten, len(stylesheet)))
+		return abort(errors.New(fmt.Sprintf("error writing all bytes of stylesheet. Only %d of %d bytes were writeren", bytesWritten, len(stylesheet))))
 	}
 	bytesWritten, err = xmlConn.Write(inputXml)
 	if err != nil {
-		return nil, errors.New("error writing xml document: " + err.Error())
+		return abort(errors.New("error writing xml document: " + err.Error()))
 	} else if bytesWritten != len(inputXml) {
-		return nil, errors.New(fmt.Sprintf("error writing all bytes of xml document. Only %d of %d bytes were writeren", bytesWritten, len(inputXml)))
+		return abort(errors.New(fmt.Sprintf("error writing all bytes of xml document. Only %d of %d bytes were writeren", bytesWritten, len(inputXml))))
 	}
 
 	// As soon as the content is sent, we have to close the connection in order to make saxon do it's work.
 	err = xsltConn.Close()
 	if err != nil {
-		return nil, errors.New("error closing stylesheet socket: " + err.Error())
+		return abort(errors.New("error closing stylesheet socket: " + err.Error()))
 	}
 	err = xmlConn.Close()
 	if err != nil {
-		return nil, errors.New("error writing xml document socket: " + err.Error())
+		return abort(errors.New("error writing xml document socket: " + err.Error()))
 	}
 
 	// Read input until we get an error as Saxon will close the connection after sending the last byte.
 	// REMARK: don't use the ioutils.ReadAll as this will fail.
-	var response []byte
-	for true {
-		buf := make([]byte, 1024)
+	var response bytes.Buffer
+	buf := make([]byte, 32*1024)
+	for {
 		read, err := outConn.Read(buf)
+		response.Write(buf[0:read])
 		if err != nil {
 			break
 		}
-		response = append(response, buf[0:read]...)
 	}
 
 	err = transformer.Stop()
+	if ctx.Err() != nil {
+		// The read loop doesn't tell an incomplete result apart from a complete one.
+		return nil, ctx.Err()
+	}
 	if err != nil {
 		return nil, err
 	}
 
-	return response, nil
+	return response.Bytes(), nil
 }
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package gosaxon
+
+import (
+	"crypto/sha256"
+	_ "embed"
+	"encoding/hex"
+	"errors"
+	"io/ioutil"
+	"os"
+	"path/filepath"
+	"runtime"
+	"sync"
+
+	"github.com/rs/zerolog/log"
+)
+
+//go:embed exec/gosaxon-transformer.exe
+var goSaxonExecutableWindows []byte
+
+//go:embed exec/gosaxon-transformer.lnx
+var goSaxonExecutableLinux []byte
+
+//go:embed exec/gosaxon-transformer.mac
+var goSaxonExecutableMac []byte
+
+// UseMemoryExecutable makes the transformers on Linux run from an anonymous in-memory file (memfd) instead of a file
+// extracted to the cache directory, so the embedded executable never touches the filesystem. It has to be set before
+// the first transformer is started. If the kernel doesn't support it, the executable is extracted as usual.
+var UseMemoryExecutable = false
+
+var (
+	embeddedExecutablePath  string
+	embeddedExecutableMutex sync.Mutex
+)
+
+// embeddedExecutable returns the path of the transformer executable embedded for the current system.
+// It is extracted once per process into a file named after the hash of its content, which later processes with the
+// same executable simply re-use, so starting a transformer doesn't write anything after the first time.
+func embeddedExecutable() (string, error) {
+	embeddedExecutableMutex.Lock()
+	defer embeddedExecutableMutex.Unlock()
+
+	if embeddedExecutablePath != "" {
+		return embeddedExecutablePath, nil
+	}
+	var content []byte
+	var suffix string
+	switch runtime.GOOS {
+	case "windows":
+		content, suffix = goSaxonExecutableWindows, ".exe"
+	case "linux":
+		content, suffix = goSaxonExecutableLinux, ".lnx"
+	case "darwin":
+		content, suffix = goSaxonExecutableMac, ".mac"
+	default:
+		return "", errors.New("there is no embedded transformer executable for " + runtime.GOOS)
+	}
+
+	if UseMemoryExecutable {
+		path, err := memoryExecutable(content)
+		if err == nil {
+			log.Debug().Str("executablePath", path).Msg("Using in-memory transformer binary")
+			embeddedExecutablePath = path
+			return path, nil
+		}
+		log.Debug().Err(err).Msg("Can't use in-memory transformer binary, extracting it")
+	}
+
+	hash := sha256.Sum256(content)
+	name := "gosaxon-transformer-" + hex.EncodeToString(hash[:12]) + suffix
+	var lastErr error
+	for _, dir := range executableDirs() {
+		path, err := extractExecutable(dir, name, content)
+		if err == nil {
+			log.Debug().Str("executablePath", path).Msg("Using embedded transformer binary")
+			embeddedExecutablePath = path
+			return path, nil
+		}
+		lastErr = err
+	}
+	return "", lastErr
+}
+
+// executableDirs returns the directories to extract the executable to, in the order they are tried.
+func executableDirs() []string {
+	var dirs []string
+	if cacheDir, err := os.UserCacheDir(); err == nil {
+		dirs = append(dirs, filepath.Join(cacheDir, "gosaxon"))
+	}
+	// The temp directory might be shared by several users, so everyone gets a directory of their own.
+	return append(dirs, filepath.Join(os.TempDir(), "gosaxon-"+userName()))
+}
+
+func userName() string {
+	for _, variable := range []string{"USER", "USERNAME"} {
+		if name := os.Getenv(variable); name != "" {
+			return filepath.Base(name)
+		}
+	}
+	return "shared"
+}
+
+// extractExecutable writes the content to the named file in the directory, unless it's already there.
+// Concurrent processes each write a temporary file of their own and atomically rename it, so a process never sees a
+// partially written executable. The file is never removed, as other processes might be using it.
+func extractExecutable(dir string, name string, content []byte) (string, error) {
+	path := filepath.Join(dir, name)
+	// The name contains the hash of the content, so an existing file of the right size is the right one.
+	if info, err := os.Stat(path); err == nil && info.Size() == int64(len(content)) {
+		return path, nil
+	}
+
+	if err := os.MkdirAll(dir, 0755); err != nil {
+		return "", errors.New("got error creating directory for executable: " + err.Error())
+	}
+	tmpFile, err := ioutil.TempFile(dir, name+".*.tmp")
+	if err != nil {
+		return "", errors.New("got error creating temp file for executable: " + err.Error())
+	}
+	_, err = tmpFile.Write(content)
+	if closeErr := tmpFile.Close(); err == nil {
+		err = closeErr
+	}
+	if err == nil {
+		err = os.Chmod(tmpFile.Name(), 0755)
+	}
+	if err == nil {
+		err = os.Rename(tmpFile.Name(), path)
+	}
+	if err != nil {
+		_ = os.Remove(tmpFile.Name())
+		// On Windows the rename fails, if another process extracted the executable and already runs it.
+		if info, statErr := os.Stat(path); statErr == nil && info.Size() == int64(len(content)) {
+			return path, nil
+		}
+		return "", errors.New("got error dumping executable to the filesystem: " + err.Error())
+	}
+	return path, nil
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package gosaxon
+
+import (
+	"errors"
+	"os"
+	"runtime"
+	"strconv"
+	"syscall"
+	"unsafe"
+)
+
+// The syscall package doesn't define memfd_create, its number depends on the architecture.
+var memfdCreateSyscalls = map[string]uintptr{
+	"386":     356,
+	"amd64":   319,
+	"arm":     385,
+	"arm64":   279,
+	"ppc64le": 360,
+	"riscv64": 279,
+	"s390x":   350,
+}
+
+const mfdCloexec = 0x0001
+
+// memoryExecutableFile stays open for the lifetime of the process, as every transformer is started from it.
+var memoryExecutableFile *os.File
+
+// memoryExecutable writes the content to an anonymous in-memory file and returns a path the kernel can execute.
+func memoryExecutable(content []byte) (string, error) {
+	number, ok := memfdCreateSyscalls[runtime.GOARCH]
+	if !ok {
+		return "", errors.New("memfd_create is not supported on " + runtime.GOARCH)
+	}
+	name, err := syscall.BytePtrFromString("gosaxon-transformer")
+	if err != nil {
+		return "", err
+	}
+	fd, _, errno := syscall.Syscall(number, uintptr(unsafe.Pointer(name)), mfdCloexec, 0)
+	if errno != 0 {
+		return "", errors.New("got error creating in-memory file: " + errno.Error())
+	}
+	writable := os.NewFile(fd, "gosaxon-transformer")
+	if _, err = writable.Write(content); err != nil {
+		_ = writable.Close()
+		return "", errors.New("got error writing in-memory file: " + err.Error())
+	}
+	// A file still open for writing can't be executed (ETXTBSY), so only a read-only descriptor is kept.
+	readOnly, err := os.Open("/proc/self/fd/" + strconv.Itoa(int(fd)))
+	_ = writable.Close()
+	if err != nil {
+		return "", errors.New("got error reopening in-memory file: " + err.Error())
+	}
+	memoryExecutableFile = readOnly
+	// Refer to our own process explicitly, as the path is resolved by the started child.
+	return "/proc/" + strconv.Itoa(os.Getpid()) + "/fd/" + strconv.Itoa(int(readOnly.Fd())), nil
+}
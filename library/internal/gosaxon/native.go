@@ -0,0 +1,158 @@
+//go:build gosaxon_native
+// +build gosaxon_native
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package gosaxon
+
+/*
+#cgo LDFLAGS: -L${SRCDIR}/native -lgosaxon
+#cgo linux LDFLAGS: -Wl,-rpath,${SRCDIR}/native
+#cgo darwin LDFLAGS: -Wl,-rpath,${SRCDIR}/native
+
+// Declarations of the functions exported by libgosaxon (see GoSaxonCApi) and the GraalVM isolate API.
+// They are declared here instead of including the generated headers, so only the library itself is needed.
+typedef struct __graal_isolate_t graal_isolate_t;
+typedef struct __graal_isolatethread_t graal_isolatethread_t;
+
+int graal_create_isolate(void* params, graal_isolate_t** isolate, graal_isolatethread_t** thread);
+int graal_attach_thread(graal_isolate_t* isolate, graal_isolatethread_t** thread);
+int graal_detach_thread(graal_isolatethread_t* thread);
+int graal_tear_down_isolate(graal_isolatethread_t* thread);
+
+int gosaxon_transform(graal_isolatethread_t* thread, char* xslt, int xsltLength, char* xml, int xmlLength, char** result, int* resultLength);
+void gosaxon_free(graal_isolatethread_t* thread, char* buffer);
+*/
+import "C"
+
+import (
+	"errors"
+	"fmt"
+	"runtime"
+	"sync"
+	"unsafe"
+)
+
+// NativePool executes transformations in-process using the libgosaxon shared library, instead of starting
+// a transformer process and talking to it over sockets.
+// It keeps a number of pre-created GraalVM isolates, each transformation uses one of them exclusively,
+// so up to size transformations are executed in parallel.
+type NativePool struct {
+	isolates chan *C.graal_isolate_t
+	all      []*C.graal_isolate_t
+	mutex    sync.Mutex
+	closed   bool
+}
+
+func NewNativePool(size int) (*NativePool, error) {
+	if size < 1 {
+		return nil, errors.New("the pool needs at least one isolate")
+	}
+	pool := &NativePool{
+		isolates: make(chan *C.graal_isolate_t, size),
+	}
+	// Creating an isolate attaches the current OS thread, which has to be detached on the same thread again.
+	runtime.LockOSThread()
+	defer runtime.UnlockOSThread()
+	for i := 0; i < size; i++ {
+		var isolate *C.graal_isolate_t
+		var thread *C.graal_isolatethread_t
+		if C.graal_create_isolate(nil, &isolate, &thread) != 0 {
+			_ = pool.Close()
+			return nil, errors.New(fmt.Sprintf("error creating isolate %d", i))
+		}
+		// Tearing down an isolate waits for all its attached threads to be detached.
+		C.graal_detach_thread(thread)
+		pool.all = append(pool.all, isolate)
+		pool.isolates <- isolate
+	}
+	return pool, nil
+}
+
+func (m *NativePool) Transform(inputXml []byte, stylesheet []byte) ([]byte, error) {
+	isolate, ok := <-m.isolates
+	if !ok {
+		return nil, errors.New("native pool is closed")
+	}
+	defer m.release(isolate)
+
+	// An isolate thread is bound to the OS thread it was attached on,
+	// so we must not be moved to another OS thread while using it.
+	runtime.LockOSThread()
+	defer runtime.UnlockOSThread()
+	var thread *C.graal_isolatethread_t
+	if C.graal_attach_thread(isolate, &thread) != 0 {
+		return nil, errors.New("error attaching thread to isolate")
+	}
+	// Every OS thread left attached would keep an isolate thread alive and make Close wait for it forever.
+	defer C.graal_detach_thread(thread)
+
+	var result *C.char
+	var resultLength C.int
+	// The library only reads the input during the call and doesn't keep any references to it,
+	// so the Go memory can be passed directly without copying it.
+	status := C.gosaxon_transform(thread,
+		bytePointer(stylesheet), C.int(len(stylesheet)),
+		bytePointer(inputXml), C.int(len(inputXml)),
+		&result, &resultLength)
+	defer C.gosaxon_free(thread, result)
+
+	payload := C.GoBytes(unsafe.Pointer(result), resultLength)
+	if err := statusError(byte(status), payload); err != nil {
+		return nil, err
+	}
+	return payload, nil
+}
+
+// Close tears down all isolates. It waits till all running transformations are finished.
+func (m *NativePool) Close() error {
+	m.mutex.Lock()
+	if m.closed {
+		m.mutex.Unlock()
+		return nil
+	}
+	m.closed = true
+	m.mutex.Unlock()
+
+	runtime.LockOSThread()
+	defer runtime.UnlockOSThread()
+	var err error
+	for range m.all {
+		isolate := <-m.isolates
+		var thread *C.graal_isolatethread_t
+		// Tearing down detaches the thread, all other threads have already been detached after their transformation.
+		if C.graal_attach_thread(isolate, &thread) != 0 || C.graal_tear_down_isolate(thread) != 0 {
+			err = errors.New("error tearing down isolate")
+		}
+	}
+	close(m.isolates)
+	return err
+}
+
+func (m *NativePool) release(isolate *C.graal_isolate_t) {
+	m.isolates <- isolate
+}
+
+func bytePointer(data []byte) *C.char {
+	if len(data) == 0 {
+		return nil
+	}
+	return (*C.char)(unsafe.Pointer(&data[0]))
+}
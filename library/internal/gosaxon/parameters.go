@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package gosaxon
+
+import (
+	"encoding/binary"
+	"math"
+	"strconv"
+)
+
+// Types of the entries of a parameters block.
+const (
+	parameterOutputProperty byte = 0x00
+	parameterString         byte = 0x01
+	parameterInteger        byte = 0x02
+	parameterDecimal        byte = 0x03
+	parameterDouble         byte = 0x04
+	parameterBoolean        byte = 0x05
+	parameterDocument       byte = 0x06
+)
+
+// Parameters are the values of the xsl:param elements of a stylesheet and the output properties to use for a
+// single transformation. They are applied by the transformer to the compiled stylesheet, so any number of variants
+// of the parameters share the same cached stylesheet, instead of generating a stylesheet per variant.
+//
+// Parameter names are either local names or "{namespace-uri}local-name". Setting a name again replaces its value.
+// A nil *Parameters means no parameters.
+type Parameters struct {
+	entries []parameter
+}
+
+type parameter struct {
+	kind  byte
+	name  string
+	value []byte
+}
+
+// NewParameters returns empty parameters, the setters can be chained.
+func NewParameters() *Parameters {
+	return &Parameters{}
+}
+
+// SetString sets a parameter to an xs:string.
+func (p *Parameters) SetString(name string, value string) *Parameters {
+	return p.set(parameterString, name, []byte(value))
+}
+
+// SetInt sets a parameter to an xs:integer.
+func (p *Parameters) SetInt(name string, value int64) *Parameters {
+	return p.set(parameterInteger, name, []byte(strconv.FormatInt(value, 10)))
+}
+
+// SetDecimal sets a parameter to an xs:decimal given in its lexical form (e.g. "12.50"), so it isn't rounded
+// on the way. An invalid value makes the transformation fail.
+func (p *Parameters) SetDecimal(name string, value string) *Parameters {
+	return p.set(parameterDecimal, name, []byte(value))
+}
+
+// SetFloat sets a parameter to an xs:double.
+func (p *Parameters) SetFloat(name string, value float64) *Parameters {
+	var text string
+	switch {
+	case math.IsInf(value, 1):
+		text = "INF"
+	case math.IsInf(value, -1):
+		text = "-INF"
+	case math.IsNaN(value):
+		text = "NaN"
+	default:
+		text = strconv.FormatFloat(value, 'g', -1, 64)
+	}
+	return p.set(parameterDouble, name, []byte(text))
+}
+
+// SetBool sets a parameter to an xs:boolean.
+func (p *Parameters) SetBool(name string, value bool) *Parameters {
+	return p.set(parameterBoolean, name, []byte(strconv.FormatBool(value)))
+}
+
+// SetDocument sets a parameter to the document node of the parsed xml, e.g. for lookup tables.
+// The document is parsed once per transformation, for larger documents that are used by many transformations,
+// storing them with Session.PutDocument is cheaper.
+func (p *Parameters) SetDocument(name string, xml []byte) *Parameters {
+	return p.set(parameterDocument, name, xml)
+}
+
+// SetOutputProperty overrides an attribute of the xsl:output element of the stylesheet, e.g. "indent" or "method".
+// Saxon specific properties are named "{http://saxon.sf.net/}name".
+func (p *Parameters) SetOutputProperty(name string, value string) *Parameters {
+	return p.set(parameterOutputProperty, name, []byte(value))
+}
+
+func (p *Parameters) set(kind byte, name string, value []byte) *Parameters {
+	for i := range p.entries {
+		if p.entries[i].name == name && (p.entries[i].kind == parameterOutputProperty) == (kind == parameterOutputProperty) {
+			p.entries[i] = parameter{kind: kind, name: name, value: value}
+			return p
+		}
+	}
+	p.entries = append(p.entries, parameter{kind: kind, name: name, value: value})
+	return p
+}
+
+// parametersBlock encodes the parameters as a big-endian uint32 count followed by the entries,
+// each consisting of the type byte, the name block and the value block.
+func parametersBlock(parameters *Parameters) []byte {
+	size := 4
+	for _, entry := range parameters.entries {
+		size += 1 + 4 + len(entry.name) + 4 + len(entry.value)
+	}
+	block := make([]byte, 0, size)
+	block = appendUint32(block, uint32(len(parameters.entries)))
+	for _, entry := range parameters.entries {
+		block = append(block, entry.kind)
+		block = appendUint32(block, uint32(len(entry.name)))
+		block = append(block, entry.name...)
+		block = appendUint32(block, uint32(len(entry.value)))
+		block = append(block, entry.value...)
+	}
+	return block
+}
+
+func appendUint32(block []byte, value uint32) []byte {
+	var encoded [4]byte
+	binary.BigEndian.PutUint32(encoded[:], value)
+	return append(block, encoded[:]...)
+}
@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package gosaxon
+
+import (
+	"bufio"
+	"context"
+	"errors"
+	"io"
+	"strconv"
+	"strings"
+	"sync"
+	"time"
+)
+
+// PoolOptions configures a Pool.
+type PoolOptions struct {
+	// ExecutablePath of the transformer, the embedded transformer is used if empty.
+	ExecutablePath string
+	Debug          bool
+	// Size is the number of transformer processes kept running, which is also the number of transformations
+	// executed in parallel.
+	Size int
+	// MaxJobs is the number of transformations after which a process is replaced by a fresh one (0 = never).
+	MaxJobs int
+	// MaxMemory is the heap size in bytes, after which a process is replaced by a fresh one (0 = never).
+	MaxMemory int64
+	// MemoryCheckInterval is the minimum time between two checks of the heap size of a process (defaults to one second).
+	MemoryCheckInterval time.Duration
+	// StylesheetStore is a directory, in which the processes keep their compiled stylesheets, so fresh processes
+	// don't have to compile them again (empty = compile every stylesheet in every process).
+	StylesheetStore string
+}
+
+// Pool keeps a number of transformer processes started ahead of time and hands each transformation one of them
+// exclusively, so no transformation has to wait for a process to start.
+// Processes are started in the background: initially, after a process crashed and after a process has been
+// retired, because it did its maximum number of jobs or exceeded the memory limit.
+// A Pool is safe for concurrent use. If all processes are in use, transformations wait for one to become available.
+type Pool struct {
+	options PoolOptions
+	// Every slot of the pool is either idle, in use or being (re-)started. Slots, whose process couldn't be
+	// started, are handed out as well, so the error reaches a caller instead of letting everyone wait forever.
+	slots  chan *poolSlot
+	closed chan struct{}
+	starts sync.WaitGroup
+	// mutex makes checking for closed and starting a process or returning a slot one step, so Close can't miss either.
+	mutex sync.Mutex
+}
+
+type poolSlot struct {
+	session         *Session
+	err             error
+	jobs            int
+	lastMemoryCheck time.Time
+}
+
+func NewPool(options PoolOptions) (*Pool, error) {
+	if options.Size < 1 {
+		return nil, errors.New("the pool needs at least one process")
+	}
+	if options.MemoryCheckInterval <= 0 {
+		options.MemoryCheckInterval = time.Second
+	}
+	pool := &Pool{
+		options: options,
+		slots:   make(chan *poolSlot, options.Size),
+		closed:  make(chan struct{}),
+	}
+	// Start the first process right away, so problems show up here and not with the first transformation.
+	slot := pool.start()
+	if slot.err != nil {
+		return nil, slot.err
+	}
+	pool.slots <- slot
+	for i := 1; i < options.Size; i++ {
+		pool.refill()
+	}
+	return pool, nil
+}
+
+func (m *Pool) Transform(inputXml []byte, stylesheet []byte) ([]byte, error) {
+	return m.TransformWithLimits(context.Background(), inputXml, stylesheet, Limits{})
+}
+
+// TransformContext is the same as Transform, but gives up waiting for a process or the transformation,
+// as soon as the context is done.
+func (m *Pool) TransformContext(ctx context.Context, inputXml []byte, stylesheet []byte) ([]byte, error) {
+	return m.TransformWithLimits(ctx, inputXml, stylesheet, Limits{})
+}
+
+// TransformWithLimits is the same as TransformContext, but additionally lets the transformer enforce the limits.
+// If the transformation times out or the context is done while it is running, its process is replaced by a fresh
+// one, as the transformer can't abort a stylesheet that computes without reading or writing anything.
+func (m *Pool) TransformWithLimits(ctx context.Context, inputXml []byte, stylesheet []byte, limits Limits) ([]byte, error) {
+	return m.TransformWithParameters(ctx, inputXml, stylesheet, nil, limits)
+}
+
+// TransformWithParameters is the same as TransformWithLimits, but additionally passes the stylesheet parameters and
+// output properties, see Session.TransformWithParameters.
+func (m *Pool) TransformWithParameters(ctx context.Context, inputXml []byte, stylesheet []byte, parameters *Parameters,
+	limits Limits) ([]byte, error) {
+	slot, err := m.acquire(ctx)
+	if err != nil {
+		return nil, err
+	}
+	result, err := slot.session.TransformWithParameters(ctx, inputXml, stylesheet, parameters, limits)
+	if err == ErrTimeout || (err != nil && ctx.Err() != nil) {
+		m.retire(slot)
+		m.refill()
+		return nil, err
+	}
+	m.release(slot)
+	return result, err
+}
+
+// TransformStream transforms the document read from inputXml and writes the result to output while it is produced,
+// see Session.TransformStream. Processes are replaced the same way as by TransformWithLimits.
+func (m *Pool) TransformStream(ctx context.Context, inputXml io.Reader, stylesheet io.Reader, output io.Writer,
+	parameters *Parameters, limits Limits) error {
+	slot, err := m.acquire(ctx)
+	if err != nil {
+		return err
+	}
+	err = slot.session.TransformStream(ctx, inputXml, stylesheet, output, parameters, limits)
+	if err == ErrTimeout || (err != nil && ctx.Err() != nil) {
+		m.retire(slot)
+		m.refill()
+		return err
+	}
+	m.release(slot)
+	return err
+}
+
+// Close stops all processes. Transformations still running are finished, before their process is stopped.
+func (m *Pool) Close() error {
+	m.mutex.Lock()
+	if !m.isClosed() {
+		close(m.closed)
+	}
+	m.mutex.Unlock()
+	// Wait for the processes being started, so they are either in the pool or already stopped. Slots still in use
+	// are stopped, when they are released.
+	m.starts.Wait()
+	var err error
+	for {
+		select {
+		case slot := <-m.slots:
+			if slot.session != nil {
+				if closeErr := slot.session.Close(); closeErr != nil {
+					err = closeErr
+				}
+			}
+		default:
+			return err
+		}
+	}
+}
+
+// acquire waits for a process, replacing any that died while being idle.
+func (m *Pool) acquire(ctx context.Context) (*poolSlot, error) {
+	for {
+		select {
+		case <-ctx.Done():
+			return nil, ctx.Err()
+		case <-m.closed:
+			return nil, errors.New("pool is closed")
+		case slot := <-m.slots:
+			if slot.err != nil {
+				m.refill()
+				return nil, errors.New("error starting transformer executable: " + slot.err.Error())
+			}
+			if !slot.session.Alive() {
+				m.retire(slot)
+				m.refill()
+				continue
+			}
+			return slot, nil
+		}
+	}
+}
+
+// release puts the process back into the pool or replaces it, if it crashed, did its maximum number of jobs
+// or exceeded the memory limit.
+func (m *Pool) release(slot *poolSlot) {
+	slot.jobs++
+	if !slot.session.Alive() || m.isWornOut(slot) {
+		m.retire(slot)
+		m.refill()
+		return
+	}
+	m.put(slot)
+}
+
+// put returns the slot to the pool or stops its process, if the pool has been closed in the meantime.
+func (m *Pool) put(slot *poolSlot) {
+	m.mutex.Lock()
+	defer m.mutex.Unlock()
+	if m.isClosed() {
+		m.retire(slot)
+		return
+	}
+	// There are never more slots than the capacity of the channel, so this doesn't block while holding the mutex.
+	m.slots <- slot
+}
+
+func (m *Pool) isWornOut(slot *poolSlot) bool {
+	if m.options.MaxJobs > 0 && slot.jobs >= m.options.MaxJobs {
+		return true
+	}
+	if m.options.MaxMemory <= 0 || time.Since(slot.lastMemoryCheck) < m.options.MemoryCheckInterval {
+		return false
+	}
+	slot.lastMemoryCheck = time.Now()
+	memory, err := committedMemory(slot.session)
+	if err != nil {
+		// If we can't even get the statistics, the process isn't worth keeping.
+		return true
+	}
+	return memory > m.options.MaxMemory
+}
+
+// refill starts a process in the background, which takes the place of one that was retired or couldn't be started.
+func (m *Pool) refill() {
+	m.mutex.Lock()
+	defer m.mutex.Unlock()
+	if m.isClosed() {
+		return
+	}
+	// Close sets closed holding the mutex before it waits, so it either sees this start or we see it closed.
+	m.starts.Add(1)
+	go func() {
+		defer m.starts.Done()
+		m.put(m.start())
+	}()
+}
+
+func (m *Pool) start() *poolSlot {
+	// Each process only ever gets one transformation at a time, so a single worker is enough.
+	args := []string{"--exit-with-parent", "--workers=1", "--queue-size=1"}
+	if m.options.StylesheetStore != "" {
+		args = append(args, "--stylesheet-store="+m.options.StylesheetStore)
+	}
+	session, err := NewSession(m.options.ExecutablePath, m.options.Debug, args...)
+	return &poolSlot{
+		session:         session,
+		err:             err,
+		lastMemoryCheck: time.Now(),
+	}
+}
+
+// retire stops the process of the slot in the background, so the caller doesn't have to wait for it.
+func (m *Pool) retire(slot *poolSlot) {
+	if slot.session != nil {
+		go func() {
+			_ = slot.session.Close()
+		}()
+	}
+}
+
+func (m *Pool) isClosed() bool {
+	select {
+	case <-m.closed:
+		return true
+	default:
+		return false
+	}
+}
+
+// committedMemory reads the heap size reported by the statistics of the transformer.
+func committedMemory(session *Session) (int64, error) {
+	stats, err := session.Stats()
+	if err != nil {
+		return 0, err
+	}
+	scanner := bufio.NewScanner(strings.NewReader(stats))
+	for scanner.Scan() {
+		line := scanner.Text()
+		if strings.HasPrefix(line, "gosaxon_memory_committed_bytes ") {
+			return strconv.ParseInt(strings.TrimPrefix(line, "gosaxon_memory_committed_bytes "), 10, 64)
+		}
+	}
+	return 0, errors.New("transformer doesn't report its memory usage")
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package gosaxon
+
+import (
+	"bufio"
+	"encoding/binary"
+	"errors"
+	"fmt"
+	"io"
+	"time"
+)
+
+// Wire format spoken with a transformer started in server mode.
+// Every request starts with an operation byte followed by the operation specific blocks,
+// every response is a status byte followed by a single block.
+// A block is a big-endian uint32 length followed by that many bytes.
+const (
+	opTransform         byte = 0x01
+	opStats             byte = 0x02
+	opPutDocument       byte = 0x03
+	opTransformDocument byte = 0x04
+	opReleaseDocument   byte = 0x05
+	opBatch             byte = 0x06
+	opTransformFile     byte = 0x07
+	opTransformMetrics  byte = 0x08
+	opTransformRecords  byte = 0x09
+	opWithLimits        byte = 0x0A
+	opProfile           byte = 0x0B
+	opWithParameters    byte = 0x0C
+	opTransformStream   byte = 0x0D
+
+	statusSuccess byte = 0x00
+	statusFailure byte = 0x01
+	statusBusy    byte = 0x02
+	statusTimeout byte = 0x03
+)
+
+// ErrBusy is returned, if the transformer rejected a request because all of its workers are busy
+// and its queue is full. The request was not executed and can be retried later.
+var ErrBusy = errors.New("transformer is busy")
+
+// ErrTimeout is returned, if the transformer aborted a request, because it didn't finish before its deadline.
+var ErrTimeout = errors.New("transformation exceeded its timeout")
+
+// Limits are enforced by the transformer for a single request. Zero values mean unlimited.
+type Limits struct {
+	// Timeout is the time the request may take, including the time it waits for a worker.
+	Timeout time.Duration
+	// MaxInputBytes is the maximum size of the document.
+	MaxInputBytes int64
+	// MaxOutputBytes is the maximum size of the result.
+	MaxOutputBytes int64
+}
+
+// limitsBlock encodes the limits as three big-endian int64 values: the timeout in milliseconds and the sizes.
+func limitsBlock(limits Limits) []byte {
+	timeoutMillis := int64(limits.Timeout / time.Millisecond)
+	if limits.Timeout > 0 && timeoutMillis == 0 {
+		// Zero would mean no timeout at all.
+		timeoutMillis = 1
+	}
+	block := make([]byte, 24)
+	binary.BigEndian.PutUint64(block[0:], uint64(timeoutMillis))
+	binary.BigEndian.PutUint64(block[8:], uint64(limits.MaxInputBytes))
+	binary.BigEndian.PutUint64(block[16:], uint64(limits.MaxOutputBytes))
+	return block
+}
+
+func handleBlock(handle DocumentHandle) []byte {
+	block := make([]byte, 8)
+	binary.BigEndian.PutUint64(block, uint64(handle))
+	return block
+}
+
+func writeBlock(writer *bufio.Writer, block []byte) error {
+	var length [4]byte
+	binary.BigEndian.PutUint32(length[:], uint32(len(block)))
+	if _, err := writer.Write(length[:]); err != nil {
+		return err
+	}
+	_, err := writer.Write(block)
+	return err
+}
+
+func readBlock(reader *bufio.Reader) ([]byte, error) {
+	var length [4]byte
+	if _, err := io.ReadFull(reader, length[:]); err != nil {
+		return nil, err
+	}
+	block := make([]byte, binary.BigEndian.Uint32(length[:]))
+	if _, err := io.ReadFull(reader, block); err != nil {
+		return nil, err
+	}
+	return block, nil
+}
+
+// readResponse reads the status and the given number of blocks of a response.
+// An error is only returned, if the response couldn't be read, in which case the connection is no longer usable.
+func readResponse(reader *bufio.Reader, blockCount int) (byte, [][]byte, error) {
+	status, err := reader.ReadByte()
+	if err != nil {
+		return 0, nil, errors.New("error reading response status: " + err.Error())
+	}
+	blocks := make([][]byte, blockCount)
+	for i := range blocks {
+		if blocks[i], err = readBlock(reader); err != nil {
+			return 0, nil, errors.New("error reading response: " + err.Error())
+		}
+	}
+	return status, blocks, nil
+}
+
+// TransformMetrics contains the time spent in each phase of a transformation and the sizes of the input and output.
+type TransformMetrics struct {
+	// Bom is the time spent detecting and skipping a byte order mark.
+	Bom time.Duration
+	// Compile is the time spent looking up the stylesheet in the cache and compiling it, if it wasn't cached.
+	Compile time.Duration
+	// Parse is the time spent parsing the document.
+	Parse time.Duration
+	// Transform is the time spent applying the stylesheet and serializing the result.
+	Transform   time.Duration
+	InputBytes  int64
+	OutputBytes int64
+}
+
+// parseMetrics decodes the metrics block, a sequence of big-endian int64 values.
+func parseMetrics(block []byte) (*TransformMetrics, error) {
+	if len(block) < 6*8 {
+		return nil, errors.New(fmt.Sprintf("got invalid metrics of %d bytes", len(block)))
+	}
+	value := func(i int) int64 {
+		return int64(binary.BigEndian.Uint64(block[i*8:]))
+	}
+	return &TransformMetrics{
+		Bom:         time.Duration(value(0)),
+		Compile:     time.Duration(value(1)),
+		Parse:       time.Duration(value(2)),
+		Transform:   time.Duration(value(3)),
+		InputBytes:  value(4),
+		OutputBytes: value(5),
+	}, nil
+}
+
+// readBatchItem reads a single item of a batch response. The final item has the index -1.
+func readBatchItem(reader *bufio.Reader) (byte, int, []byte, error) {
+	status, err := reader.ReadByte()
+	if err != nil {
+		return 0, 0, nil, errors.New("error reading batch status: " + err.Error())
+	}
+	var index [4]byte
+	if _, err = io.ReadFull(reader, index[:]); err != nil {
+		return 0, 0, nil, errors.New("error reading batch index: " + err.Error())
+	}
+	payload, err := readBlock(reader)
+	if err != nil {
+		return 0, 0, nil, errors.New("error reading batch result: " + err.Error())
+	}
+	return status, int(int32(binary.BigEndian.Uint32(index[:]))), payload, nil
+}
+
+// statusError turns any non-success status into an error.
+func statusError(status byte, payload []byte) error {
+	switch status {
+	case statusSuccess:
+		return nil
+	case statusFailure:
+		return errors.New("transformation failed: " + string(payload))
+	case statusBusy:
+		return ErrBusy
+	case statusTimeout:
+		return ErrTimeout
+	default:
+		return errors.New(fmt.Sprintf("got unexpected status %d: %s", status, string(payload)))
+	}
+}
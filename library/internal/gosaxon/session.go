@@ -0,0 +1,482 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package gosaxon
+
+import (
+	"bufio"
+	"context"
+	"encoding/binary"
+	"encoding/hex"
+	"errors"
+	"fmt"
+	"io/ioutil"
+	"net"
+	"os"
+	"path/filepath"
+	"strconv"
+	"sync"
+	"time"
+)
+
+// Session keeps one transformer process running in server mode, so any number of transformations can be
+// done without paying for process startup every time.
+// A Session is safe for concurrent use. Each request in flight uses its own connection, so the transformer
+// can execute them in parallel. Connections are kept open and re-used by later requests.
+type Session struct {
+	transformer *Transformer
+	network     string
+	address     string
+	socketDir   string
+	idle        []*connection
+	closed      bool
+	broken      bool
+	mutex       sync.Mutex
+}
+
+type connection struct {
+	conn   net.Conn
+	reader *bufio.Reader
+	writer *bufio.Writer
+}
+
+// NewSession starts the transformer listening on a TCP port of the loopback interface.
+// Additional arguments (e.g. "--workers=4") are passed to the transformer as they are.
+func NewSession(executablePath string, debug bool, args ...string) (*Session, error) {
+	transformer := NewTransformer()
+	portInformation, err := transformer.StartServer(executablePath, debug, args...)
+	if err != nil {
+		return nil, errors.New("error starting transformer executable: " + err.Error())
+	}
+
+	portBytes, err := hex.DecodeString(portInformation[0:8])
+	if err != nil {
+		_ = transformer.Stop()
+		return nil, errors.New("got error decoding the server port number: " + err.Error())
+	}
+	port := binary.BigEndian.Uint32(portBytes)
+
+	return newSession(&Session{
+		transformer: transformer,
+		network:     "tcp",
+		address:     "127.0.0.1:" + strconv.Itoa(int(port)),
+	})
+}
+
+// NewUnixSession starts the transformer listening on a Unix domain socket instead of a TCP port.
+// This avoids the overhead of the TCP stack for the local traffic and doesn't use up any ephemeral ports.
+// The socket is created in a new temporary directory, which is removed when the session is closed.
+func NewUnixSession(executablePath string, debug bool) (*Session, error) {
+	socketDir, err := ioutil.TempDir(os.TempDir(), "gosaxon-")
+	if err != nil {
+		return nil, errors.New("got error creating directory for the socket: " + err.Error())
+	}
+	socketPath := filepath.Join(socketDir, "gosaxon.sock")
+
+	transformer := NewTransformer()
+	// The port reported by the transformer is always 0 in this case, as we already know where to connect to.
+	if _, err = transformer.StartServer(executablePath, debug, "--socket="+socketPath); err != nil {
+		_ = os.RemoveAll(socketDir)
+		return nil, errors.New("error starting transformer executable: " + err.Error())
+	}
+
+	return newSession(&Session{
+		transformer: transformer,
+		network:     "unix",
+		address:     socketPath,
+		socketDir:   socketDir,
+	})
+}
+
+func newSession(session *Session) (*Session, error) {
+	// Open the first connection right away, so problems show up here and not with the first request.
+	conn, err := session.acquire()
+	if err != nil {
+		_ = session.Close()
+		return nil, err
+	}
+	session.release(conn)
+	return session, nil
+}
+
+func (m *Session) Transform(inputXml []byte, stylesheet []byte) ([]byte, error) {
+	return m.roundTrip(opTransform, stylesheet, inputXml)
+}
+
+// TransformContext is the same as Transform, but gives up, as soon as the context is cancelled or its deadline passes.
+// The deadline is also passed on to the transformer, which aborts the transformation when it passes.
+func (m *Session) TransformContext(ctx context.Context, inputXml []byte, stylesheet []byte) ([]byte, error) {
+	return m.TransformWithLimits(ctx, inputXml, stylesheet, Limits{})
+}
+
+// TransformWithLimits is the same as TransformContext, but additionally lets the transformer enforce the limits.
+// ErrTimeout is returned, if the transformer aborted the transformation because of the timeout (or the deadline of
+// the context, if it is earlier) and an error containing the limit, if the document or the result is too large.
+//
+// Note the transformer can only abort a transformation, when it reads the document or writes the result. A
+// stylesheet computing for a long time without producing any output keeps its worker busy beyond the deadline,
+// the Pool takes care of this by replacing the process.
+func (m *Session) TransformWithLimits(ctx context.Context, inputXml []byte, stylesheet []byte, limits Limits) ([]byte, error) {
+	return m.TransformWithParameters(ctx, inputXml, stylesheet, nil, limits)
+}
+
+// TransformWithParameters is the same as TransformWithLimits, but additionally passes the stylesheet parameters and
+// output properties. The stylesheet is compiled and cached by the transformer without them, so transformations with
+// different parameters don't compile it again.
+func (m *Session) TransformWithParameters(ctx context.Context, inputXml []byte, stylesheet []byte, parameters *Parameters,
+	limits Limits) ([]byte, error) {
+	response, err := m.exchangeContext(ctx, limits, parameters, opTransform, 1, stylesheet, inputXml)
+	if err != nil {
+		return nil, err
+	}
+	return response[0], nil
+}
+
+// TransformWithMetrics is the same as Transform, but additionally returns the time spent in each phase of the
+// transformation, as measured by the transformer.
+func (m *Session) TransformWithMetrics(inputXml []byte, stylesheet []byte) ([]byte, *TransformMetrics, error) {
+	response, err := m.exchange(opTransformMetrics, 2, stylesheet, inputXml)
+	if err != nil {
+		return nil, nil, err
+	}
+	metrics, err := parseMetrics(response[1])
+	if err != nil {
+		return nil, nil, err
+	}
+	return response[0], metrics, nil
+}
+
+// TransformFile lets the transformer read the input and stylesheet from local files and write the result
+// directly to the output file, so neither the document nor the result have to be held in memory or sent over
+// the connection. It returns the size of the written output file. If the transformation fails, no output file is left behind.
+func (m *Session) TransformFile(inputPath string, stylesheetPath string, outputPath string) (int64, error) {
+	// The transformer might not share our working directory, so only pass absolute paths.
+	paths := make([][]byte, 3)
+	for i, path := range []string{stylesheetPath, inputPath, outputPath} {
+		absolutePath, err := filepath.Abs(path)
+		if err != nil {
+			return 0, errors.New("got error resolving path " + path + ": " + err.Error())
+		}
+		paths[i] = []byte(absolutePath)
+	}
+	response, err := m.roundTrip(opTransformFile, paths...)
+	if err != nil {
+		return 0, err
+	}
+	if len(response) != 8 {
+		return 0, errors.New(fmt.Sprintf("got invalid output size of %d bytes", len(response)))
+	}
+	return int64(binary.BigEndian.Uint64(response)), nil
+}
+
+// TransformRecords transforms a document consisting of a list of records, without building a tree for the whole
+// document. Every element named recordName (a local name or "{namespace-uri}local-name") is transformed as a document
+// of its own, in parallel on the idle workers of the transformer. The results are returned in the order of the records,
+// inside an element named wrapper (or without any wrapper element, if it's empty).
+func (m *Session) TransformRecords(inputXml []byte, stylesheet []byte, recordName string, wrapper string) ([]byte, error) {
+	return m.roundTrip(opTransformRecords, stylesheet, []byte(recordName), []byte(wrapper), inputXml)
+}
+
+// DocumentHandle references a document parsed and stored by the transformer using PutDocument.
+type DocumentHandle uint64
+
+// URI returns the URI under which stylesheets can access the stored document using the document() function.
+func (h DocumentHandle) URI() string {
+	return "gosaxon:document/" + strconv.FormatUint(uint64(h), 10)
+}
+
+// PutDocument lets the transformer parse the document and keep it, so it can be transformed
+// any number of times using TransformDocument without parsing it again.
+// The document might be evicted, if the transformer runs out of memory for stored documents.
+func (m *Session) PutDocument(inputXml []byte) (DocumentHandle, error) {
+	response, err := m.roundTrip(opPutDocument, inputXml)
+	if err != nil {
+		return 0, err
+	}
+	if len(response) != 8 {
+		return 0, errors.New(fmt.Sprintf("got invalid document handle of %d bytes", len(response)))
+	}
+	return DocumentHandle(binary.BigEndian.Uint64(response)), nil
+}
+
+// TransformDocument transforms a document previously stored using PutDocument.
+func (m *Session) TransformDocument(handle DocumentHandle, stylesheet []byte) ([]byte, error) {
+	return m.roundTrip(opTransformDocument, stylesheet, handleBlock(handle))
+}
+
+// ReleaseDocument removes a document previously stored using PutDocument.
+func (m *Session) ReleaseDocument(handle DocumentHandle) error {
+	_, err := m.roundTrip(opReleaseDocument, handleBlock(handle))
+	return err
+}
+
+// Stats returns the statistics of the transformer (e.g. the stylesheet cache hits and misses, request counts and
+// latency histograms per phase) in the Prometheus text format.
+func (m *Session) Stats() (string, error) {
+	stats, err := m.roundTrip(opStats)
+	if err != nil {
+		return "", err
+	}
+	return string(stats), nil
+}
+
+// ProfileReport returns the time spent in each template, function and instruction of the stylesheets across all
+// transformations, the most expensive first. The transformer has to be started with "--profile".
+func (m *Session) ProfileReport() (string, error) {
+	report, err := m.roundTrip(opProfile, []byte("report"))
+	if err != nil {
+		return "", err
+	}
+	return string(report), nil
+}
+
+// CollapsedStacks returns the time spent in each call stack of the stylesheets across all transformations in the
+// collapsed format of flame graph tools, the times are in microseconds. The transformer has to be started with "--profile".
+func (m *Session) CollapsedStacks() (string, error) {
+	stacks, err := m.roundTrip(opProfile, []byte("collapsed"))
+	if err != nil {
+		return "", err
+	}
+	return string(stacks), nil
+}
+
+// Alive reports, if the transformer process is still running and all requests so far could be transferred.
+func (m *Session) Alive() bool {
+	m.mutex.Lock()
+	defer m.mutex.Unlock()
+	return !m.closed && !m.broken && !m.transformer.Exited()
+}
+
+// Close closes all connections and stops the transformer process.
+func (m *Session) Close() error {
+	m.mutex.Lock()
+	defer m.mutex.Unlock()
+
+	m.closed = true
+	for _, conn := range m.idle {
+		_ = conn.conn.Close()
+	}
+	m.idle = nil
+	err := m.transformer.Stop()
+	if m.socketDir != "" {
+		_ = os.RemoveAll(m.socketDir)
+	}
+	return err
+}
+
+// roundTrip sends a request consisting of the operation and the blocks and waits for the response.
+func (m *Session) roundTrip(operation byte, blocks ...[]byte) ([]byte, error) {
+	response, err := m.exchange(operation, 1, blocks...)
+	if err != nil {
+		return nil, err
+	}
+	return response[0], nil
+}
+
+// exchange sends a request consisting of the operation and the blocks and reads a response consisting of
+// the given number of blocks. Any status other than success is returned as error.
+func (m *Session) exchange(operation byte, responseBlocks int, blocks ...[]byte) ([][]byte, error) {
+	conn, err := m.acquire()
+	if err != nil {
+		return nil, err
+	}
+	response, status, err := m.send(conn, responseBlocks, nil, nil, operation, blocks)
+	if err != nil {
+		m.discard(conn)
+		return nil, err
+	}
+
+	// The response was read completely, so the connection can be used for the next request.
+	m.release(conn)
+	if err = statusError(status, response[0]); err != nil {
+		return nil, err
+	}
+	return response, nil
+}
+
+// exchangeContext is the same as exchange, but prefixes the request with the limits and parameters and gives up when
+// the context is done. In that case the connection is closed, as the rest of the response can't be told apart from
+// the next one.
+func (m *Session) exchangeContext(ctx context.Context, limits Limits, parameters *Parameters, operation byte, responseBlocks int,
+	blocks ...[]byte) ([][]byte, error) {
+	limits, err := contextLimits(ctx, limits)
+	if err != nil {
+		return nil, err
+	}
+	if limits == (Limits{}) && parameters == nil && ctx.Done() == nil {
+		return m.exchange(operation, responseBlocks, blocks...)
+	}
+
+	conn, err := m.acquire()
+	if err != nil {
+		return nil, err
+	}
+	stopWatching := watchContext(ctx, conn)
+	response, status, err := m.send(conn, responseBlocks, &limits, parameters, operation, blocks)
+	stopWatching()
+
+	if err != nil {
+		if ctx.Err() != nil {
+			// The transformer is fine, only we stopped waiting for it.
+			_ = conn.conn.Close()
+			return nil, ctx.Err()
+		}
+		m.discard(conn)
+		return nil, err
+	}
+	// The response might have been read completely just before the context was done.
+	if err = conn.conn.SetDeadline(time.Time{}); err != nil {
+		m.discard(conn)
+	} else {
+		m.release(conn)
+	}
+	if err = statusError(status, response[0]); err != nil {
+		return nil, err
+	}
+	return response, nil
+}
+
+// contextLimits returns the limits with the timeout shortened to the deadline of the context, if it is earlier.
+// An error is returned, if the context is already done.
+func contextLimits(ctx context.Context, limits Limits) (Limits, error) {
+	if deadline, ok := ctx.Deadline(); ok {
+		remaining := time.Until(deadline)
+		if remaining <= 0 {
+			return limits, context.DeadlineExceeded
+		}
+		if limits.Timeout <= 0 || remaining < limits.Timeout {
+			limits.Timeout = remaining
+		}
+	}
+	return limits, ctx.Err()
+}
+
+// watchContext unblocks any read or write of the connection, as soon as the context is done.
+// The returned function stops watching, the deadline it might have set is left to the caller.
+func watchContext(ctx context.Context, conn *connection) func() {
+	finished := make(chan struct{})
+	watcherDone := make(chan struct{})
+	go func() {
+		defer close(watcherDone)
+		select {
+		case <-ctx.Done():
+			_ = conn.conn.SetDeadline(time.Now())
+		case <-finished:
+		}
+	}()
+	return func() {
+		close(finished)
+		<-watcherDone
+	}
+}
+
+// send writes the request, prefixed with the limits and parameters unless there are none, and reads the response.
+// If an error is returned, the connection can't be used anymore.
+func (m *Session) send(conn *connection, responseBlocks int, limits *Limits, parameters *Parameters, operation byte,
+	blocks [][]byte) ([][]byte, byte, error) {
+	if err := writeRequest(conn.writer, limits, parameters, operation, blocks); err != nil {
+		return nil, 0, errors.New("error writing request: " + err.Error())
+	}
+	if err := conn.writer.Flush(); err != nil {
+		return nil, 0, errors.New("error sending request: " + err.Error())
+	}
+	status, response, err := readResponse(conn.reader, responseBlocks)
+	if err != nil {
+		return nil, 0, err
+	}
+	return response, status, nil
+}
+
+// writeRequest writes the operation and the blocks, prefixed with the limits and parameters unless there are none,
+// without flushing them.
+func writeRequest(writer *bufio.Writer, limits *Limits, parameters *Parameters, operation byte, blocks [][]byte) error {
+	if limits != nil && *limits != (Limits{}) {
+		if err := writer.WriteByte(opWithLimits); err != nil {
+			return err
+		}
+		if err := writeBlock(writer, limitsBlock(*limits)); err != nil {
+			return err
+		}
+	}
+	if parameters != nil && len(parameters.entries) > 0 {
+		if err := writer.WriteByte(opWithParameters); err != nil {
+			return err
+		}
+		if err := writeBlock(writer, parametersBlock(parameters)); err != nil {
+			return err
+		}
+	}
+	if err := writer.WriteByte(operation); err != nil {
+		return err
+	}
+	for _, block := range blocks {
+		if err := writeBlock(writer, block); err != nil {
+			return err
+		}
+	}
+	return nil
+}
+
+func (m *Session) acquire() (*connection, error) {
+	m.mutex.Lock()
+	if m.closed {
+		m.mutex.Unlock()
+		return nil, errors.New("session is closed")
+	}
+	if len(m.idle) > 0 {
+		conn := m.idle[len(m.idle)-1]
+		m.idle = m.idle[:len(m.idle)-1]
+		m.mutex.Unlock()
+		return conn, nil
+	}
+	m.mutex.Unlock()
+
+	conn, err := net.Dial(m.network, m.address)
+	if err != nil {
+		m.mutex.Lock()
+		m.broken = true
+		m.mutex.Unlock()
+		return nil, errors.New("got error opening connection to server port: " + err.Error())
+	}
+	return &connection{
+		conn:   conn,
+		reader: bufio.NewReader(conn),
+		writer: bufio.NewWriter(conn),
+	}, nil
+}
+
+func (m *Session) release(conn *connection) {
+	m.mutex.Lock()
+	defer m.mutex.Unlock()
+
+	if m.closed {
+		_ = conn.conn.Close()
+		return
+	}
+	m.idle = append(m.idle, conn)
+}
+
+// discard closes a connection, which can't be used anymore, because a request or response couldn't be transferred
+// completely. Usually this means the transformer process is gone, so the session is marked as broken.
+func (m *Session) discard(conn *connection) {
+	_ = conn.conn.Close()
+	m.mutex.Lock()
+	m.broken = true
+	m.mutex.Unlock()
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package gosaxon
+
+import (
+	"bufio"
+	"context"
+	"encoding/binary"
+	"errors"
+	"fmt"
+	"io"
+	"io/ioutil"
+	"time"
+)
+
+// streamChunkSize is the size of the blocks the document is sent in, the transformer sends the result in blocks of
+// the same size. Reading and writing a stream never uses more memory than one block per direction.
+const streamChunkSize = 64 * 1024
+
+// TransformStream transforms the document read from inputXml and writes the result to output, while it is produced.
+// The document is sent in blocks while the transformer parses it, so neither the document nor the result is ever held
+// in memory as a whole. Backpressure works in both directions: a slow output blocks the transformer and a transformer
+// parsing slower than the document can be read blocks reading it.
+// The stylesheet is read completely before the transformation starts, as it is compiled and cached as a whole.
+// If an error is returned, the output might contain part of the result. TransformStream doesn't return, before it
+// stopped reading the document.
+func (m *Session) TransformStream(ctx context.Context, inputXml io.Reader, stylesheet io.Reader, output io.Writer,
+	parameters *Parameters, limits Limits) error {
+	xslt, err := ioutil.ReadAll(stylesheet)
+	if err != nil {
+		return errors.New("error reading stylesheet: " + err.Error())
+	}
+	limits, err = contextLimits(ctx, limits)
+	if err != nil {
+		return err
+	}
+
+	conn, err := m.acquire()
+	if err != nil {
+		return err
+	}
+	stopWatching := watchContext(ctx, conn)
+	// Send the stylesheet right away, so the transformer can compile it while the document is read.
+	err = writeRequest(conn.writer, &limits, parameters, opTransformStream, [][]byte{xslt})
+	if err == nil {
+		err = conn.writer.Flush()
+	}
+	if err != nil {
+		stopWatching()
+		if ctx.Err() != nil {
+			_ = conn.conn.Close()
+			return ctx.Err()
+		}
+		m.discard(conn)
+		return errors.New("error writing request: " + err.Error())
+	}
+	stop := make(chan struct{})
+	writeErrors := make(chan error, 1)
+	go func() {
+		err := writeDocument(conn.writer, inputXml, stop)
+		if err != nil {
+			// Make sure reading the response is aborted, as it won't be complete.
+			_ = conn.conn.Close()
+		}
+		writeErrors <- err
+	}()
+
+	outputErr, err := copyResult(conn.reader, output)
+	var status byte
+	var response [][]byte
+	if outputErr == nil && err == nil {
+		status, response, err = readResponse(conn.reader, 1)
+	}
+	if outputErr != nil || err != nil {
+		// The rest of the response can't be told apart from the next one.
+		_ = conn.conn.Close()
+	}
+	// The transformer skips whatever we'd still send after it answered.
+	close(stop)
+	writeErr := <-writeErrors
+	stopWatching()
+
+	if err != nil {
+		if ctx.Err() != nil {
+			// The transformer is fine, only we stopped waiting for it.
+			return ctx.Err()
+		}
+		if writeErr != nil {
+			return writeErr
+		}
+		m.discard(conn)
+		return err
+	}
+	if outputErr != nil {
+		return outputErr
+	}
+	// After a timeout the transformer closes the connection, as the transformation might still be reading from it.
+	if writeErr != nil || status != statusSuccess || conn.conn.SetDeadline(time.Time{}) != nil {
+		_ = conn.conn.Close()
+	} else {
+		m.release(conn)
+	}
+	if err = statusError(status, response[0]); err != nil {
+		return err
+	}
+	return writeErr
+}
+
+// writeDocument sends the document in blocks followed by the end marker. It stops early, as soon as stop is closed.
+func writeDocument(writer *bufio.Writer, document io.Reader, stop <-chan struct{}) error {
+	buf := make([]byte, streamChunkSize)
+	for {
+		select {
+		case <-stop:
+			return writeEndMarker(writer)
+		default:
+		}
+		readBytes, err := document.Read(buf)
+		if readBytes > 0 {
+			if writeErr := writeBlock(writer, buf[0:readBytes]); writeErr != nil {
+				return errors.New("error writing request: " + writeErr.Error())
+			}
+			// The transformer is waiting for the data, so don't keep it in the buffer.
+			if writeErr := writer.Flush(); writeErr != nil {
+				return errors.New("error writing request: " + writeErr.Error())
+			}
+		}
+		if errors.Is(err, io.EOF) {
+			return writeEndMarker(writer)
+		}
+		if err != nil {
+			return errors.New("error reading document: " + err.Error())
+		}
+	}
+}
+
+func writeEndMarker(writer *bufio.Writer) error {
+	if _, err := writer.Write(endMarker); err != nil {
+		return errors.New("error writing request: " + err.Error())
+	}
+	if err := writer.Flush(); err != nil {
+		return errors.New("error writing request: " + err.Error())
+	}
+	return nil
+}
+
+// copyResult writes the blocks of the result to the output, till it reads the end marker.
+// outputErr is returned, if the output failed, err if the response couldn't be read.
+func copyResult(reader *bufio.Reader, output io.Writer) (outputErr error, err error) {
+	buf := make([]byte, streamChunkSize)
+	for {
+		var length [4]byte
+		if _, err = io.ReadFull(reader, length[:]); err != nil {
+			return nil, errors.New("error reading response: " + err.Error())
+		}
+		chunkLength := int32(binary.BigEndian.Uint32(length[:]))
+		if chunkLength == -1 {
+			return nil, nil
+		}
+		if chunkLength < 0 {
+			return nil, errors.New(fmt.Sprintf("got invalid block length %d", chunkLength))
+		}
+		for remaining := int(chunkLength); remaining > 0; {
+			readBytes := remaining
+			if readBytes > len(buf) {
+				readBytes = len(buf)
+			}
+			if _, err = io.ReadFull(reader, buf[0:readBytes]); err != nil {
+				return nil, errors.New("error reading response: " + err.Error())
+			}
+			if _, err = output.Write(buf[0:readBytes]); err != nil {
+				return errors.New("error writing output: " + err.Error()), nil
+			}
+			remaining -= readBytes
+		}
+	}
+}
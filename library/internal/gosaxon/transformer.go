@@ -20,33 +20,28 @@
 package gosaxon
 
 import (
-	_ "embed"
 	"errors"
 	"fmt"
 	"io"
-	"io/ioutil"
 	"os"
 	"os/exec"
-	"runtime"
 	"strconv"
-	"time"
+	"strings"
 
 	"github.com/rs/zerolog/log"
 )
 
-//go:embed exec/gosaxon-transformer.exe
-var goSaxonExecutableWindows []byte
+// handshakeFailure is reported by the transformer instead of the port numbers, if it couldn't start.
+const handshakeFailure = "FAILURE"
 
-//go:embed exec/gosaxon-transformer.lnx
-var goSaxonExecutableLinux []byte
-
-//go:embed exec/gosaxon-transformer.mac
-var goSaxonExecutableMac []byte
+// ErrStartFailed is returned, if the transformer reported that it couldn't start (e.g. because of invalid
+// arguments or because its port or socket couldn't be opened). The reason is written to its stderr.
+var ErrStartFailed = errors.New("transformer failed to start, see its error output for the reason")
 
 type Transformer struct {
-	tmpExecutor *os.File
-	cmd         *exec.Cmd
-	running     bool
+	cmd    *exec.Cmd
+	stdin  io.WriteCloser
+	exited chan struct{}
 }
 
 func NewTransformer() *Transformer {
@@ -54,69 +49,31 @@ func NewTransformer() *Transformer {
 }
 
 func (m *Transformer) Start(executablePath string, debug bool) (string, error) {
+	// Read 24 bytes as these contain the 3 times 8 bytes with the hex encoded port numbers.
+	return m.start(executablePath, debug, 24)
+}
+
+// StartServer starts the transformer as long-lived server, which only reports one hex encoded port number.
+// Additional arguments (e.g. "--socket=...") are passed to the transformer as they are.
+func (m *Transformer) StartServer(executablePath string, debug bool, args ...string) (string, error) {
+	return m.start(executablePath, debug, 8, append([]string{"--server"}, args...)...)
+}
+
+func (m *Transformer) start(executablePath string, debug bool, handshakeLength int, args ...string) (string, error) {
 	if executablePath == "" {
-		// Dump the embedded executable to a temp file.
+		// The embedded executable is only extracted by the first transformer, all others re-use it.
 		var err error
-		switch runtime.GOOS {
-		case "windows":
-			log.Debug().Msg("Using embedded Windows transformer binary")
-			m.tmpExecutor, err = ioutil.TempFile(os.TempDir(), "gosaxon-executor-*.exe")
-			if err != nil {
-				return "", errors.New("got error creating temp file for executable: " + err.Error())
-			}
-			log.Debug().Str("executablePath", m.tmpExecutor.Name()).Msg("Path of transformer binary")
-			err = ioutil.WriteFile(m.tmpExecutor.Name(), goSaxonExecutableWindows, os.ModeTemporary)
-			if err != nil {
-				return "", errors.New("got error dumping executable to the filesystem: " + err.Error())
-			}
-		case "linux":
-			log.Debug().Msg("Using embedded Linux transformer binary")
-			m.tmpExecutor, err = ioutil.TempFile(os.TempDir(), "gosaxon-executor-*.lnx")
-			if err != nil {
-				return "", errors.New("got error creating temp file for executable: " + err.Error())
-			}
-			log.Debug().Str("executablePath", m.tmpExecutor.Name()).Msg("Path of transformer binary")
-			err = ioutil.WriteFile(m.tmpExecutor.Name(), goSaxonExecutableLinux, os.ModeTemporary)
-			if err != nil {
-				return "", errors.New("got error dumping executable to the filesystem: " + err.Error())
-			}
-			cmd := exec.Command("chmod", "+x", m.tmpExecutor.Name())
-			err := cmd.Run()
-			if err != nil {
-				return "", errors.New("got error making linux executor executable: " + err.Error())
-			}
-		case "darwin":
-			log.Debug().Msg("Using embedded MacOS transformer binary")
-			m.tmpExecutor, err = ioutil.TempFile(os.TempDir(), "gosaxon-executor-*.mac")
-			if err != nil {
-				return "", errors.New("got error creating temp file for executable: " + err.Error())
-			}
-			log.Debug().Str("executablePath", m.tmpExecutor.Name()).Msg("Path of transformer binary")
-			err = ioutil.WriteFile(m.tmpExecutor.Name(), goSaxonExecutableMac, os.ModeTemporary)
-			if err != nil {
-				return "", errors.New("got error dumping executable to the filesystem: " + err.Error())
-			}
-			cmd := exec.Command("chmod", "+x", m.tmpExecutor.Name())
-			err := cmd.Run()
-			if err != nil {
-				return "", errors.New("got error making mac os executor executable: " + err.Error())
-			}
-		}
-		// Free the handle so we can start the process.
-		err = m.tmpExecutor.Close()
+		executablePath, err = embeddedExecutable()
 		if err != nil {
-			return "", errors.New("got error closing file for executable: " + err.Error())
+			return "", err
 		}
-
-		// Update the executor path to the temp file
-		executablePath = m.tmpExecutor.Name()
 	} else {
 		log.Debug().Str("executablePath", executablePath).Msg("Using provided transformer binary")
 	}
 
 	// Prepare a command to run the gosaxon-executor
 	log.Debug().Msg("Starting transformer executable")
-	m.cmd = exec.Command(executablePath, strconv.FormatBool(debug))
+	m.cmd = exec.Command(executablePath, append([]string{strconv.FormatBool(debug)}, args...)...)
 
 	// Get access to StdOut and StdErr of the previously created command.
 	stdout, err := m.cmd.StdoutPipe()
@@ -127,6 +84,12 @@ func (m *Transformer) Start(executablePath string, debug bool) (string, error) {
 	if err != nil {
 		return "", errors.New("got error accessing stderr pipe: " + err.Error())
 	}
+	// We never write anything, but keep the standard input open as long as we live. A transformer started with
+	// "--exit-with-parent" stops as soon as it is closed, so it doesn't outlive us, even if Stop is never called.
+	m.stdin, err = m.cmd.StdinPipe()
+	if err != nil {
+		return "", errors.New("got error accessing stdin pipe: " + err.Error())
+	}
 
 	// Actually start the executor.
 	err = m.cmd.Start()
@@ -137,43 +100,62 @@ func (m *Transformer) Start(executablePath string, debug bool) (string, error) {
 	log.Debug().Msg("Transformer started")
 
 	// Start a go routine to output any content from the processes std-err output.
-	m.running = true
+	m.exited = make(chan struct{})
 	go func() {
+		// The stderr pipe is only closed, when the process is gone (or by Stop waiting for it).
+		defer close(m.exited)
 		buf := make([]byte, 1024)
-		for m.running {
-			time.Sleep(time.Millisecond * 10)
+		for {
+			// Read blocks till there is output, so there's no need to poll.
 			readBytes, err := stderr.Read(buf)
+			if readBytes > 0 {
+				_, _ = fmt.Fprintf(os.Stderr, "read from stderr: %s\n", string(buf[0:readBytes]))
+			}
 			if err != nil {
-				if errors.Is(err, io.EOF) {
-					// Stop running as the stream is closed.
-					m.running = false
-				} else {
+				// No more output will come, neither after EOF nor after any other error (e.g. the pipe was closed).
+				if !errors.Is(err, io.EOF) && !errors.Is(err, os.ErrClosed) {
 					_, _ = fmt.Fprintf(os.Stderr, "got error reading from stderr: %s\n", err)
 				}
-			} else {
-				_, _ = fmt.Fprintf(os.Stderr, "read from stderr: %s\n", string(buf[0:readBytes]))
+				return
 			}
 		}
 	}()
 
-	// Read 24 bytes as these contain the 3 times 8 bytes with the hex encoded port numbers.
+	// Read the handshake containing the hex encoded port numbers.
 	buf := make([]byte, 1024)
 	curPos := 0
-	for curPos < 24 {
+	for curPos < handshakeLength {
 		readBytes, err := stdout.Read(buf[curPos:])
+		curPos += readBytes
 		if err != nil {
+			// Don't leave the process (and its pipes) behind, it's of no use without the handshake.
+			_ = m.Stop()
+			if strings.HasPrefix(string(buf[0:curPos]), handshakeFailure) {
+				return "", ErrStartFailed
+			}
 			return "", errors.New("got error reading from stdout: " + err.Error())
 		}
-		curPos += readBytes
 	}
 
 	log.Debug().Msg("Transformer connected")
 
-	return string(buf[0:24]), nil
+	return string(buf[0:handshakeLength]), nil
+}
+
+// Exited reports, if the transformer process has terminated, e.g. because it crashed.
+func (m *Transformer) Exited() bool {
+	select {
+	case <-m.exited:
+		return true
+	default:
+		return false
+	}
 }
 
 func (m *Transformer) Stop() error {
-	m.running = false
+	if m.stdin != nil {
+		_ = m.stdin.Close()
+	}
 
 	log.Debug().Msg("Stopping transformer")
 
@@ -184,22 +166,5 @@ func (m *Transformer) Stop() error {
 		_ = m.cmd.Wait()
 	}
 
-	// If we were using the temp executor, delete it after being finished with the transformation.
-	if m.tmpExecutor != nil {
-		log.Debug().Msg("Cleaning up temporary executor binary")
-		// Delete the executor file. (Give the OS max 2 seconds to clear the locks)
-		tries := 0
-		err := os.Remove(m.tmpExecutor.Name())
-		for err != nil && tries < 200 {
-			time.Sleep(time.Millisecond * 10)
-			err = os.Remove(m.tmpExecutor.Name())
-			tries++
-		}
-		if err != nil {
-			return errors.New("error deleting temp executor: " + err.Error())
-		}
-		log.Debug().Msg("Temporary executor binary cleaned")
-	}
-
 	return nil
 }
@@ -0,0 +1,50 @@
+//go:build gosaxon_native
+// +build gosaxon_native
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package gosaxon
+
+import "github.com/chrisdutz/gosaxon/library/internal/gosaxon"
+
+// NativePool executes transformations in-process using the libgosaxon shared library (via cgo),
+// avoiding process startup, sockets and copies. It is only available when building with the
+// "gosaxon_native" build tag. Call Close when it is no longer needed.
+type NativePool struct {
+	pool *gosaxon.NativePool
+}
+
+// NewNativePool creates a pool with the given number of GraalVM isolates,
+// which is also the number of transformations that are executed in parallel.
+func NewNativePool(size int) (*NativePool, error) {
+	pool, err := gosaxon.NewNativePool(size)
+	if err != nil {
+		return nil, err
+	}
+	return &NativePool{pool: pool}, nil
+}
+
+func (m *NativePool) Transform(inputXml []byte, stylesheet []byte) ([]byte, error) {
+	return m.pool.Transform(inputXml, stylesheet)
+}
+
+func (m *NativePool) Close() error {
+	return m.pool.Close()
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package gosaxon
+
+import (
+	"context"
+	"io"
+	"runtime"
+	"sync"
+
+	"github.com/chrisdutz/gosaxon/library/internal/gosaxon"
+)
+
+// PoolOptions configures a Pool: the number of processes and when to replace a process by a fresh one.
+type PoolOptions = gosaxon.PoolOptions
+
+// Pool keeps a number of transformer processes started ahead of time, each transformation uses one of them
+// exclusively. Crashed processes and processes exceeding their maximum number of jobs or their memory limit are
+// replaced in the background. A Pool can be used by multiple goroutines at once. Call Close when it is no longer needed.
+type Pool struct {
+	pool *gosaxon.Pool
+}
+
+// NewPool creates a pool with the given number of transformer processes.
+func NewPool(size int) (*Pool, error) {
+	return NewPoolWithOptions(PoolOptions{Size: size})
+}
+
+func NewPoolWithOptions(options PoolOptions) (*Pool, error) {
+	pool, err := gosaxon.NewPool(options)
+	if err != nil {
+		return nil, err
+	}
+	return &Pool{pool: pool}, nil
+}
+
+func (m *Pool) Transform(inputXml []byte, stylesheet []byte) ([]byte, error) {
+	return m.pool.Transform(inputXml, stylesheet)
+}
+
+// TransformContext is the same as Transform, but gives up waiting for a process or the transformation as soon as the
+// context is done. A process, whose transformation was abandoned or timed out, is replaced by a fresh one.
+func (m *Pool) TransformContext(ctx context.Context, inputXml []byte, stylesheet []byte) ([]byte, error) {
+	return m.pool.TransformContext(ctx, inputXml, stylesheet)
+}
+
+// TransformWithLimits is the same as TransformContext, but additionally lets the transformer enforce the limits.
+func (m *Pool) TransformWithLimits(ctx context.Context, inputXml []byte, stylesheet []byte, limits Limits) ([]byte, error) {
+	return m.pool.TransformWithLimits(ctx, inputXml, stylesheet, limits)
+}
+
+// TransformWithParameters is the same as TransformWithLimits, but additionally passes the stylesheet parameters and
+// output properties. All variants of the parameters share the stylesheet compiled once by each process.
+func (m *Pool) TransformWithParameters(ctx context.Context, inputXml []byte, stylesheet []byte, parameters *Parameters,
+	limits Limits) ([]byte, error) {
+	return m.pool.TransformWithParameters(ctx, inputXml, stylesheet, parameters, limits)
+}
+
+// TransformStream transforms the document read from inputXml and writes the result to output, while it is produced.
+// Neither the document nor the result is held in memory as a whole, see the top-level TransformStream.
+func (m *Pool) TransformStream(ctx context.Context, inputXml io.Reader, stylesheet io.Reader, output io.Writer) error {
+	return m.pool.TransformStream(ctx, inputXml, stylesheet, output, nil, Limits{})
+}
+
+func (m *Pool) Close() error {
+	return m.pool.Close()
+}
+
+var (
+	defaultPool      *Pool
+	defaultPoolMutex sync.Mutex
+)
+
+// getDefaultPool returns the pool used by Transform, which is started on first use with one process per core.
+// Its processes stop by themselves, when our process exits.
+func getDefaultPool() (*Pool, error) {
+	defaultPoolMutex.Lock()
+	defer defaultPoolMutex.Unlock()
+
+	if defaultPool == nil {
+		// If starting fails, it is tried again with the next transformation.
+		pool, err := NewPool(runtime.NumCPU())
+		if err != nil {
+			return nil, err
+		}
+		defaultPool = pool
+	}
+	return defaultPool, nil
+}
@@ -19,11 +19,66 @@
 
 package gosaxon
 
-import "github.com/chrisdutz/gosaxon/library/internal/gosaxon"
+import (
+	"context"
+	"io"
+	"net/http"
 
+	"github.com/chrisdutz/gosaxon/library/internal/gosaxon"
+)
+
+// Transform transforms the xml using the stylesheet. It uses a pool of transformer processes shared by the whole
+// program, which is started with the first transformation, so later ones don't have to wait for a process to start.
 func Transform(inputXml []byte, stylesheet []byte) ([]byte, error) {
-	client := gosaxon.NewClient()
-	return client.Transform(inputXml, stylesheet)
+	pool, err := getDefaultPool()
+	if err != nil {
+		return nil, err
+	}
+	return pool.Transform(inputXml, stylesheet)
+}
+
+// TransformContext is the same as Transform, but gives up as soon as the context is cancelled or its deadline passes.
+// The deadline is enforced by the transformer as well, a transformation exceeding it is aborted and its process replaced.
+func TransformContext(ctx context.Context, inputXml []byte, stylesheet []byte) ([]byte, error) {
+	pool, err := getDefaultPool()
+	if err != nil {
+		return nil, err
+	}
+	return pool.TransformContext(ctx, inputXml, stylesheet)
+}
+
+// TransformWithLimits is the same as TransformContext, but additionally lets the transformer enforce the limits.
+// Documents or results exceeding their size limit make the transformation fail, ErrTimeout is returned, if it exceeds
+// the timeout (or the deadline of the context, if it is earlier).
+func TransformWithLimits(ctx context.Context, inputXml []byte, stylesheet []byte, limits Limits) ([]byte, error) {
+	pool, err := getDefaultPool()
+	if err != nil {
+		return nil, err
+	}
+	return pool.TransformWithLimits(ctx, inputXml, stylesheet, limits)
+}
+
+// TransformWithParameters is the same as TransformContext, but passes the values of the xsl:param elements of the
+// stylesheet and overrides its output properties. The transformer compiles and caches the stylesheet without them,
+// so any number of variants share the same compiled stylesheet.
+func TransformWithParameters(ctx context.Context, inputXml []byte, stylesheet []byte, parameters *Parameters) ([]byte, error) {
+	pool, err := getDefaultPool()
+	if err != nil {
+		return nil, err
+	}
+	return pool.TransformWithParameters(ctx, inputXml, stylesheet, parameters, Limits{})
+}
+
+// TransformStream transforms the document read from inputXml and writes the result to output, while the transformer
+// is still producing it. The document is sent in blocks while it is parsed and the result is received in blocks, so
+// the memory used doesn't depend on the size of either and a slow output slows down the transformation instead of
+// letting the result pile up. If an error is returned, the output might already contain part of the result.
+func TransformStream(ctx context.Context, inputXml io.Reader, stylesheet io.Reader, output io.Writer) error {
+	pool, err := getDefaultPool()
+	if err != nil {
+		return err
+	}
+	return pool.TransformStream(ctx, inputXml, stylesheet, output)
 }
 
 func TransformWithDebug(inputXml []byte, stylesheet []byte) ([]byte, error) {
@@ -35,3 +90,194 @@ func TransformWithExecutable(executablePath string, inputXml []byte, stylesheet
 	client := gosaxon.NewClientWithExecutable(executablePath)
 	return client.Transform(inputXml, stylesheet)
 }
+
+// ErrBusy is returned by a Session, if the transformer is already executing as many transformations
+// as it is configured for. The transformation was not executed and can be retried later.
+var ErrBusy = gosaxon.ErrBusy
+
+// ErrTimeout is returned, if the transformer aborted a transformation, because it exceeded its timeout
+// (see Limits) or the deadline of its context.
+var ErrTimeout = gosaxon.ErrTimeout
+
+// Limits are enforced by the transformer for a single transformation: a timeout and the maximum sizes of the
+// document and the result. Zero values mean unlimited.
+type Limits = gosaxon.Limits
+
+// Parameters are the typed values of the xsl:param elements of a stylesheet (e.g. SetString, SetInt, SetDocument)
+// and the output properties (SetOutputProperty) for a single transformation. Names are local names or
+// "{namespace-uri}local-name".
+type Parameters = gosaxon.Parameters
+
+// NewParameters returns empty parameters, the setters can be chained:
+// gosaxon.NewParameters().SetString("title", "Report").SetOutputProperty("indent", "yes")
+func NewParameters() *Parameters {
+	return gosaxon.NewParameters()
+}
+
+// SetExecutableInMemory makes the transformers on Linux run from an anonymous in-memory file instead of the
+// executable extracted to the user's cache directory. It has to be called before the first transformer is started
+// and is ignored on other systems or if the kernel doesn't support it.
+func SetExecutableInMemory(enabled bool) {
+	gosaxon.UseMemoryExecutable = enabled
+}
+
+// Session keeps a transformer process running in the background, so it can be used for any number of
+// transformations without starting a new process every time. Call Close when it is no longer needed.
+// A Session can be used by multiple goroutines at once, their transformations are executed in parallel.
+type Session struct {
+	session *gosaxon.Session
+}
+
+func NewSession() (*Session, error) {
+	return newSession("", false)
+}
+
+func NewSessionWithDebug() (*Session, error) {
+	return newSession("", true)
+}
+
+func NewSessionWithExecutable(executablePath string) (*Session, error) {
+	return newSession(executablePath, false)
+}
+
+// NewProfilingSession starts a Session, whose transformer records the time spent in each template, function and
+// instruction of the stylesheets, see Session.ProfileReport and Session.CollapsedStacks.
+// Profiling slows down the transformations considerably, so it should only be used to find out why they are slow.
+func NewProfilingSession() (*Session, error) {
+	return wrapSession(gosaxon.NewSession("", false, "--profile"))
+}
+
+// NewUnixSession starts a Session, which talks to the transformer process via a Unix domain socket instead of
+// a TCP port on the loopback interface. This avoids the overhead of the TCP stack and doesn't use ephemeral ports.
+func NewUnixSession() (*Session, error) {
+	return wrapSession(gosaxon.NewUnixSession("", false))
+}
+
+func NewUnixSessionWithExecutable(executablePath string) (*Session, error) {
+	return wrapSession(gosaxon.NewUnixSession(executablePath, false))
+}
+
+func newSession(executablePath string, debug bool) (*Session, error) {
+	return wrapSession(gosaxon.NewSession(executablePath, debug))
+}
+
+func wrapSession(session *gosaxon.Session, err error) (*Session, error) {
+	if err != nil {
+		return nil, err
+	}
+	return &Session{session: session}, nil
+}
+
+func (m *Session) Transform(inputXml []byte, stylesheet []byte) ([]byte, error) {
+	return m.session.Transform(inputXml, stylesheet)
+}
+
+// TransformContext is the same as Transform, but gives up as soon as the context is cancelled or its deadline passes.
+func (m *Session) TransformContext(ctx context.Context, inputXml []byte, stylesheet []byte) ([]byte, error) {
+	return m.session.TransformContext(ctx, inputXml, stylesheet)
+}
+
+// TransformWithLimits is the same as TransformContext, but additionally lets the transformer enforce the limits.
+// The transformer can only abort a transformation when it reads the document or writes the result, a Pool also
+// replaces the process of a transformation, which keeps computing beyond its deadline.
+func (m *Session) TransformWithLimits(ctx context.Context, inputXml []byte, stylesheet []byte, limits Limits) ([]byte, error) {
+	return m.session.TransformWithLimits(ctx, inputXml, stylesheet, limits)
+}
+
+// TransformWithParameters is the same as TransformWithLimits, but additionally passes the stylesheet parameters
+// and output properties. The stylesheet is only compiled once for all variants of the parameters.
+func (m *Session) TransformWithParameters(ctx context.Context, inputXml []byte, stylesheet []byte, parameters *Parameters,
+	limits Limits) ([]byte, error) {
+	return m.session.TransformWithParameters(ctx, inputXml, stylesheet, parameters, limits)
+}
+
+// TransformMetrics contains the time spent in each phase of a transformation and the sizes of its input and output.
+type TransformMetrics = gosaxon.TransformMetrics
+
+// TransformStream transforms the document read from inputXml and writes the result to output, while it is produced.
+// Neither the document nor the result is held in memory as a whole, see the top-level TransformStream.
+func (m *Session) TransformStream(ctx context.Context, inputXml io.Reader, stylesheet io.Reader, output io.Writer) error {
+	return m.session.TransformStream(ctx, inputXml, stylesheet, output, nil, Limits{})
+}
+
+// TransformWithMetrics is the same as Transform, but additionally returns the time the transformer spent in each
+// phase of the transformation (byte order mark detection, stylesheet compilation, parsing and transformation).
+func (m *Session) TransformWithMetrics(inputXml []byte, stylesheet []byte) ([]byte, *TransformMetrics, error) {
+	return m.session.TransformWithMetrics(inputXml, stylesheet)
+}
+
+// TransformFile transforms the local input file and writes the result directly to the output file, without
+// loading either of them into memory. It returns the size of the output file.
+func (m *Session) TransformFile(inputPath string, stylesheetPath string, outputPath string) (int64, error) {
+	return m.session.TransformFile(inputPath, stylesheetPath, outputPath)
+}
+
+// TransformRecords transforms every element named recordName (a local name or "{namespace-uri}local-name") of a
+// large "list of records" document as a document of its own, in parallel and without building a tree for the whole
+// document. The results are returned in the order of the records inside an element named wrapper (none, if empty).
+func (m *Session) TransformRecords(inputXml []byte, stylesheet []byte, recordName string, wrapper string) ([]byte, error) {
+	return m.session.TransformRecords(inputXml, stylesheet, recordName, wrapper)
+}
+
+// DocumentHandle references a document stored in the transformer of a Session.
+// Its URI method returns the URI for accessing the document from stylesheets via document().
+type DocumentHandle = gosaxon.DocumentHandle
+
+// PutDocument parses the document once and keeps it in the transformer,
+// so it can be transformed with any number of stylesheets using TransformDocument.
+func (m *Session) PutDocument(inputXml []byte) (DocumentHandle, error) {
+	return m.session.PutDocument(inputXml)
+}
+
+func (m *Session) TransformDocument(handle DocumentHandle, stylesheet []byte) ([]byte, error) {
+	return m.session.TransformDocument(handle, stylesheet)
+}
+
+func (m *Session) ReleaseDocument(handle DocumentHandle) error {
+	return m.session.ReleaseDocument(handle)
+}
+
+// BatchResult is the outcome of transforming a single document of a batch, tagged with the index of the document.
+type BatchResult = gosaxon.BatchResult
+
+// TransformBatch transforms all documents received from the documents channel with the same stylesheet and
+// sends the results to the results channel in the order of the documents. The results channel is closed
+// when the batch is done. The documents have to be sent and the results received from other goroutines.
+func (m *Session) TransformBatch(stylesheet []byte, documents <-chan []byte, results chan<- BatchResult) error {
+	return m.session.TransformBatch(stylesheet, documents, results)
+}
+
+// Stats returns the statistics of the transformer process in the Prometheus text format.
+func (m *Session) Stats() (string, error) {
+	return m.session.Stats()
+}
+
+// ProfileReport returns the calls, the inclusive and the exclusive time of each template, function and instruction
+// of the stylesheets across all transformations, sorted by the exclusive time. Only works with NewProfilingSession.
+func (m *Session) ProfileReport() (string, error) {
+	return m.session.ProfileReport()
+}
+
+// CollapsedStacks returns the exclusive time (in microseconds) of each call stack of the stylesheets in the collapsed
+// format, which flame graph tools like flamegraph.pl or speedscope read. Only works with NewProfilingSession.
+func (m *Session) CollapsedStacks() (string, error) {
+	return m.session.CollapsedStacks()
+}
+
+// MetricsHandler serves the statistics of the transformer process, so they can be scraped by Prometheus,
+// e.g. using http.Handle("/metrics", session.MetricsHandler()).
+func (m *Session) MetricsHandler() http.Handler {
+	return http.HandlerFunc(func(writer http.ResponseWriter, request *http.Request) {
+		stats, err := m.Stats()
+		if err != nil {
+			http.Error(writer, err.Error(), http.StatusServiceUnavailable)
+			return
+		}
+		writer.Header().Set("Content-Type", "text/plain; version=0.0.4")
+		_, _ = io.WriteString(writer, stats)
+	})
+}
+
+func (m *Session) Close() error {
+	return m.session.Close()
+}
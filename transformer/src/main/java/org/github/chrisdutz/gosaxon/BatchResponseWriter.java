@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends the results of a batch request, while the connection thread is still reading its documents.
+ *
+ * The items are sent in the order they were added, each as soon as it (and all items before it) are finished.
+ * Every written item releases one permit of the semaphore, which the reading side uses to limit the
+ * number of documents in flight.
+ */
+class BatchResponseWriter implements Runnable {
+
+    private static final Item END = new Item(-1, null);
+
+    private final DataOutputStream out;
+    private final Semaphore inFlight;
+    private final RequestLimits limits;
+    private final BlockingQueue<Item> items = new LinkedBlockingQueue<>();
+    private volatile IOException error;
+
+    BatchResponseWriter(DataOutputStream out, Semaphore inFlight, RequestLimits limits) {
+        this.out = out;
+        this.inFlight = inFlight;
+        this.limits = limits;
+    }
+
+    /**
+     * @param result the result of the transformation.
+     */
+    void add(int index, Future<ByteArrayOutputStream> result) {
+        items.add(new Item(index, result));
+    }
+
+    /**
+     * Signals that all items have been added, after these the final frame is sent.
+     */
+    void finish() {
+        items.add(END);
+    }
+
+    /**
+     * @return the error that occurred while writing or null, if everything was sent.
+     */
+    IOException getError() {
+        return error;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Item item;
+            while ((item = items.take()) != END) {
+                try {
+                    if (error == null) {
+                        write(item);
+                        // Only flush, if there's nothing more to send right away.
+                        if (items.isEmpty()) {
+                            out.flush();
+                        }
+                    } else {
+                        // The client is gone, there's no use in finishing the remaining work.
+                        item.result.cancel(true);
+                    }
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    inFlight.release();
+                }
+            }
+            if (error == null) {
+                GoSaxonProtocol.writeBatchItem(out, GoSaxonProtocol.STATUS_SUCCESS, -1, new ByteArrayOutputStream(0));
+                out.flush();
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            error = new IOException("Interrupted while sending batch results");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Item item) throws IOException, InterruptedException {
+        ByteArrayOutputStream result;
+        try {
+            result = limits.await(item.result);
+        } catch (TimeoutException e) {
+            GoSaxonProtocol.writeBatchItem(out, GoSaxonProtocol.STATUS_TIMEOUT, item.index,
+                payload(GoSaxonServer.timeoutMessage(limits)));
+            return;
+        } catch (CancellationException e) {
+            GoSaxonProtocol.writeBatchItem(out, GoSaxonProtocol.STATUS_FAILURE, item.index,
+                payload("Transformation was cancelled".getBytes(StandardCharsets.UTF_8)));
+            return;
+        } catch (ExecutionException e) {
+            Exception cause = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            System.err.println("Got error executing batch item " + item.index + ": " + cause.getMessage());
+            if (limits.isExpired()) {
+                GoSaxonProtocol.writeBatchItem(out, GoSaxonProtocol.STATUS_TIMEOUT, item.index,
+                    payload(GoSaxonServer.timeoutMessage(limits)));
+            } else {
+                GoSaxonProtocol.writeBatchItem(out, GoSaxonProtocol.STATUS_FAILURE, item.index,
+                    payload(GoSaxonServer.errorMessage(cause)));
+            }
+            return;
+        }
+        GoSaxonProtocol.writeBatchItem(out, GoSaxonProtocol.STATUS_SUCCESS, item.index, result);
+    }
+
+    static ByteArrayOutputStream payload(byte[] bytes) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(bytes.length);
+        payload.write(bytes, 0, bytes.length);
+        return payload;
+    }
+
+    private static class Item {
+        private final int index;
+        private final Future<ByteArrayOutputStream> result;
+
+        private Item(int index, Future<ByteArrayOutputStream> result) {
+            this.index = index;
+            this.result = result;
+        }
+    }
+
+}
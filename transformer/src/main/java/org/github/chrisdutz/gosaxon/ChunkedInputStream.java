@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a document sent as a sequence of blocks terminated by the end marker (see {@link GoSaxonProtocol}).
+ *
+ * The blocks are only read from the connection, when the parser asks for more data, so the document is never held
+ * in memory as a whole and a client sending faster than we parse is blocked by the connection.
+ * Closing the stream doesn't close the connection, which is still used for the response.
+ */
+class ChunkedInputStream extends InputStream {
+
+    private final DataInputStream in;
+    private int remaining;
+    private boolean ended;
+
+    ChunkedInputStream(DataInputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Connection closed in the middle of a chunk");
+        }
+        remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int readBytes = in.read(b, off, Math.min(len, remaining));
+        if (readBytes == -1) {
+            throw new EOFException("Connection closed in the middle of a chunk");
+        }
+        remaining -= readBytes;
+        return readBytes;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return Math.min(remaining, in.available());
+    }
+
+    /**
+     * Skips the rest of the document (e.g. because the transformation failed before reading all of it), so the
+     * connection can be used for the next request.
+     */
+    void skipRemaining() throws IOException {
+        while (nextChunk()) {
+            in.skipNBytes(remaining);
+            remaining = 0;
+        }
+    }
+
+    /**
+     * @return false, if the end marker has been read.
+     */
+    private boolean nextChunk() throws IOException {
+        while ((remaining == 0) && !ended) {
+            int chunkLength = in.readInt();
+            if (chunkLength == -1) {
+                ended = true;
+            } else if (chunkLength < 0) {
+                throw new IOException("Invalid block length: " + chunkLength);
+            } else {
+                remaining = chunkLength;
+            }
+        }
+        return !ended;
+    }
+
+    @Override
+    public void close() {
+        // The connection stays open.
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sends the result of a transformation as a sequence of blocks, while it is still being produced.
+ *
+ * Every time the buffer is full, it is sent as a block and flushed, so the client gets the result piece by piece and
+ * a client reading slower than we transform blocks the transformation instead of letting the result pile up in memory.
+ * The response is completed with {@link #finish(byte, ByteArrayOutputStream)}, after which every write fails. The
+ * methods are synchronized, as the connection thread might finish the response, while a worker that exceeded its
+ * deadline is still writing.
+ */
+class ChunkedOutputStream extends OutputStream {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private int count;
+    private boolean finished;
+
+    ChunkedOutputStream(DataOutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        checkFinished();
+        if (count == buffer.length) {
+            sendChunk();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        checkFinished();
+        while (len > 0) {
+            if (count == buffer.length) {
+                sendChunk();
+            }
+            int copied = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, copied);
+            count += copied;
+            off += copied;
+            len -= copied;
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        checkFinished();
+        if (count > 0) {
+            sendChunk();
+        }
+    }
+
+    @Override
+    public void close() {
+        // The connection stays open, the response is completed by finish().
+    }
+
+    /**
+     * Sends the rest of the result, the end marker and the final status of the transformation. If the transformation
+     * failed, the unsent rest of the result is dropped, the client has to discard what it already received.
+     */
+    synchronized void finish(byte status, ByteArrayOutputStream payload) throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if ((status == GoSaxonProtocol.STATUS_SUCCESS) && (count > 0)) {
+            GoSaxonProtocol.writeBlock(out, buffer, count);
+        }
+        count = 0;
+        out.writeInt(-1);
+        GoSaxonProtocol.writeResponse(out, status, payload);
+    }
+
+    private void sendChunk() throws IOException {
+        GoSaxonProtocol.writeBlock(out, buffer, count);
+        out.flush();
+        count = 0;
+    }
+
+    private void checkFinished() throws IOException {
+        if (finished) {
+            throw new IOException("The response has already been sent");
+        }
+    }
+
+}
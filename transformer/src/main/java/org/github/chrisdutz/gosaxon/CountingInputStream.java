@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the wrapped stream.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private final RequestLimits limits;
+    private long count;
+
+    public CountingInputStream(InputStream in) {
+        this(in, RequestLimits.NONE);
+    }
+
+    /**
+     * @param limits the limits to enforce on every read (the size limit and the deadline of the request).
+     */
+    public CountingInputStream(InputStream in, RequestLimits limits) {
+        super(in);
+        this.limits = limits;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            count++;
+            check();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int readBytes = super.read(b, off, len);
+        if (readBytes > 0) {
+            count += readBytes;
+            check();
+        }
+        return readBytes;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count += skipped;
+        check();
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        // Reset would make us count the same bytes twice.
+        return false;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private void check() throws IOException {
+        if (limits != RequestLimits.NONE) {
+            limits.checkInput(count);
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to the wrapped stream.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+    private final RequestLimits limits;
+    private long count;
+
+    public CountingOutputStream(OutputStream out) {
+        this(out, RequestLimits.NONE);
+    }
+
+    /**
+     * @param limits the limits to enforce on every write (the size limit and the deadline of the request).
+     */
+    public CountingOutputStream(OutputStream out, RequestLimits limits) {
+        super(out);
+        this.limits = limits;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        count++;
+        check();
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream would write every single byte on its own.
+        count += len;
+        check();
+        out.write(b, off, len);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private void check() throws IOException {
+        if (limits != RequestLimits.NONE) {
+            limits.checkOutput(count);
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import net.sf.saxon.om.DocumentInfo;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parsed documents, which can be transformed any number of times without parsing them again.
+ *
+ * Each document is referenced by a handle. The store is bounded by an estimate of the memory used by the
+ * documents (derived from the size of their source), if it is exceeded the least recently used documents
+ * are evicted. Documents can also be released explicitly.
+ *
+ * The store also acts as {@link URIResolver}, so stylesheets can access stored documents using
+ * document('gosaxon:document/{handle}').
+ */
+public class DocumentStore implements URIResolver {
+
+    public static final String URI_PREFIX = "gosaxon:document/";
+
+    /**
+     * A parsed tree is usually a multiple of the size of its source.
+     */
+    static final int ESTIMATED_EXPANSION_FACTOR = 4;
+
+    private final long maxEstimatedBytes;
+    private final LinkedHashMap<Long, Entry> documents = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong handleCounter = new AtomicLong();
+    private long estimatedBytes = 0;
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public DocumentStore(long maxEstimatedBytes) {
+        this.maxEstimatedBytes = maxEstimatedBytes;
+    }
+
+    /**
+     * Adds the document to the store.
+     *
+     * @param sourceBytes size of the source the document was parsed from.
+     * @return handle for accessing the document.
+     * @throws IllegalArgumentException if the document alone exceeds the memory budget of the store.
+     */
+    public long put(DocumentInfo document, long sourceBytes) {
+        Entry entry = new Entry(document, sourceBytes * ESTIMATED_EXPANSION_FACTOR);
+        if (entry.estimatedBytes > maxEstimatedBytes) {
+            throw new IllegalArgumentException("Document exceeds the memory budget of the document store");
+        }
+        long handle = handleCounter.incrementAndGet();
+        synchronized (this) {
+            documents.put(handle, entry);
+            estimatedBytes += entry.estimatedBytes;
+            // Remove the least recently used documents till we're in the budget again.
+            Iterator<Entry> iterator = documents.values().iterator();
+            while ((estimatedBytes > maxEstimatedBytes) && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                estimatedBytes -= eldest.estimatedBytes;
+                evictions.incrementAndGet();
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * @return the document or null, if there is no document with this handle (anymore).
+     */
+    public synchronized DocumentInfo get(long handle) {
+        Entry entry = documents.get(handle);
+        if ((entry == null) || (entry.document.getConfiguration() != PreinitializedSaxon.getConfiguration())) {
+            // Documents built with a configuration that has been replaced can't be used with the current stylesheets.
+            return null;
+        }
+        return entry.document;
+    }
+
+    /**
+     * Removes all documents, e.g. because they were built with a configuration that was replaced.
+     */
+    public synchronized void clear() {
+        documents.clear();
+        estimatedBytes = 0;
+    }
+
+    /**
+     * @return true, if the document was in the store.
+     */
+    public synchronized boolean release(long handle) {
+        Entry entry = documents.remove(handle);
+        if (entry == null) {
+            return false;
+        }
+        estimatedBytes -= entry.estimatedBytes;
+        return true;
+    }
+
+    @Override
+    public Source resolve(String href, String base) throws TransformerException {
+        if (!href.startsWith(URI_PREFIX)) {
+            // Let Saxon resolve all other URIs itself.
+            return null;
+        }
+        long handle;
+        try {
+            handle = Long.parseLong(href.substring(URI_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new TransformerException("Invalid document handle in URI: " + href);
+        }
+        DocumentInfo document = get(handle);
+        if (document == null) {
+            throw new TransformerException("Unknown document handle: " + handle);
+        }
+        return document;
+    }
+
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public void collectStatistics(Map<String, Number> statistics) {
+        statistics.put("gosaxon_document_store_documents", size());
+        statistics.put("gosaxon_document_store_estimated_bytes", getEstimatedBytes());
+        statistics.put("gosaxon_document_store_evictions_total", getEvictions());
+    }
+
+    private static class Entry {
+        private final DocumentInfo document;
+        private final long estimatedBytes;
+
+        private Entry(DocumentInfo document, long estimatedBytes) {
+            this.document = document;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+
+}
@@ -19,24 +19,66 @@
 
 package org.github.chrisdutz.gosaxon;
 
+import org.graalvm.nativeimage.IsolateThread;
+import org.graalvm.nativeimage.UnmanagedMemory;
 import org.graalvm.nativeimage.c.function.CEntryPoint;
 import org.graalvm.nativeimage.c.type.CCharPointer;
+import org.graalvm.nativeimage.c.type.CCharPointerPointer;
+import org.graalvm.nativeimage.c.type.CIntPointer;
 import org.graalvm.nativeimage.c.type.CTypeConversion;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
 
+/**
+ * C entry points of the shared library version of the transformer (libgosaxon).
+ *
+ * The caller creates one or more isolates and calls "gosaxon_transform" with the stylesheet and the document
+ * as pointer and length. The result is returned in a buffer allocated by the library, which has to be released
+ * using "gosaxon_free". Every isolate has its own copy of all static state, so each has its own engine and
+ * stylesheet cache. Calls on different isolates run fully in parallel.
+ */
 public class GoSaxonCApi {
 
-    public static ConcurrentHashMap<Long, GoSaxonTransformer> instances = new ConcurrentHashMap<>();
+    private static final GoSaxonEngine ENGINE = new GoSaxonEngine(GoSaxonOptions.parse(new String[0]));
 
-    @CEntryPoint(name = "Java_org_github_chrisdutz_gosaxon_GoSaxonCApi_start")
-    public static CCharPointer start(@CEntryPoint.IsolateThreadContext long isolateId) {
-        GoSaxonTransformer instance = new GoSaxonTransformer(false);
-        instances.put(isolateId, instance);
+    /**
+     * Transforms the document using the stylesheet.
+     *
+     * @return {@link GoSaxonProtocol#STATUS_SUCCESS}, in which case the result buffer contains the output of the
+     * transformation, or {@link GoSaxonProtocol#STATUS_FAILURE}, in which case it contains the error message.
+     * In both cases the result buffer has to be released using "gosaxon_free".
+     */
+    @CEntryPoint(name = "gosaxon_transform")
+    public static int transform(IsolateThread thread, CCharPointer xslt, int xsltLength, CCharPointer xml, int xmlLength,
+                                CCharPointerPointer result, CIntPointer resultLength) {
+        NativeOutputStream outputStream = new NativeOutputStream(Math.max(xmlLength, 1024));
+        int status;
+        try {
+            // The stylesheet is needed as array for looking it up in the cache, the document is read in-place.
+            byte[] stylesheet = new byte[xsltLength];
+            CTypeConversion.asByteBuffer(xslt, xsltLength).get(stylesheet);
+            ByteBuffer document = CTypeConversion.asByteBuffer(xml, xmlLength);
+            ENGINE.transform(new ByteBufferInputStream(document), stylesheet, outputStream);
+            status = GoSaxonProtocol.STATUS_SUCCESS;
+        } catch (Throwable e) {
+            // Nothing must escape the entry point, not even a StackOverflowError of a runaway recursion in the
+            // stylesheet, as it would take down the calling process.
+            outputStream.reset();
+            byte[] message = GoSaxonServer.errorMessage(e);
+            outputStream.write(message, 0, message.length);
+            status = GoSaxonProtocol.STATUS_FAILURE;
+        }
+        result.write(outputStream.getBuffer());
+        resultLength.write(outputStream.size());
+        return status;
+    }
 
-        int[] ports = instance.getPorts();
-        String response = String.format("%08X", ports[0]) + String.format("%08X", ports[1]) + String.format("%08X", ports[2]);
-        return CTypeConversion.toCString(response).get();
+    /**
+     * Releases a buffer returned by "gosaxon_transform".
+     */
+    @CEntryPoint(name = "gosaxon_free")
+    public static void free(IsolateThread thread, CCharPointer buffer) {
+        UnmanagedMemory.free(buffer);
     }
 
 }
@@ -0,0 +1,561 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Controller;
+import net.sf.saxon.event.Builder;
+import net.sf.saxon.event.Receiver;
+import net.sf.saxon.event.Sender;
+import net.sf.saxon.instruct.Executable;
+import net.sf.saxon.om.DocumentInfo;
+import net.sf.saxon.om.Name10Checker;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.*;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The actual Saxon transformation, independent of how the data gets in and out of the process.
+ * Used by the single-shot {@link GoSaxonTransformer} as well as by the long-lived {@link GoSaxonServer}.
+ */
+public class GoSaxonEngine {
+
+    private static final ErrorListener ERROR_LISTENER = new ErrorListener() {
+        public void warning(TransformerException exception) {
+            System.err.println("Got Warning: " + exception.getMessage());
+        }
+
+        public void error(TransformerException exception) {
+            System.err.println("Got Error: " + exception.getMessage());
+        }
+
+        public void fatalError(TransformerException exception) {
+            System.err.println("Got Fatal Error: " + exception.getMessage());
+        }
+    };
+
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Records are transformed in chunks of about this many bytes of input, as transforming a single record is too
+     * little work for a task of its own.
+     */
+    static final int RECORD_CHUNK_BYTES = 64 * 1024;
+    /**
+     * Chunks of records waiting to be transformed or to be written per core, when transforming records in parallel.
+     */
+    static final int MAX_RECORD_CHUNKS_IN_FLIGHT_PER_CORE = 2;
+
+    private final boolean debug;
+    private final TemplatesCache templatesCache;
+    private final DocumentStore documentStore;
+    private final StylesheetStore stylesheetStore;
+    private final Profiler profiler;
+    private final NamePoolMonitor namePoolMonitor;
+    private final Metrics metrics = new Metrics();
+
+    public GoSaxonEngine(boolean debug) {
+        this(debug, new TemplatesCache(0, 0), new DocumentStore(0));
+    }
+
+    public GoSaxonEngine(GoSaxonOptions options) {
+        this(options.isDebug(),
+            new TemplatesCache(options.getTemplatesCacheSize(), options.getTemplatesCacheMemory()),
+            new DocumentStore(options.getDocumentStoreMemory()),
+            openStylesheetStore(options),
+            options.isProfile() ? new Profiler() : null,
+            new NamePoolMonitor(options.getNamePoolLimit()));
+    }
+
+    public GoSaxonEngine(boolean debug, TemplatesCache templatesCache, DocumentStore documentStore) {
+        this(debug, templatesCache, documentStore, null);
+    }
+
+    public GoSaxonEngine(boolean debug, TemplatesCache templatesCache, DocumentStore documentStore, StylesheetStore stylesheetStore) {
+        this(debug, templatesCache, documentStore, stylesheetStore, null);
+    }
+
+    public GoSaxonEngine(boolean debug, TemplatesCache templatesCache, DocumentStore documentStore,
+                         StylesheetStore stylesheetStore, Profiler profiler) {
+        this(debug, templatesCache, documentStore, stylesheetStore, profiler, new NamePoolMonitor(0));
+    }
+
+    /**
+     * @param stylesheetStore store of compiled stylesheets (null = none), which has to be loaded already.
+     * @param profiler        records the time spent in the stylesheets (null = no profiling). As this requires
+     *                        compiling with tracing, this engine compiles its stylesheets using
+     *                        {@link PreinitializedSaxon#getTracingTransformerFactory()}.
+     * @param namePoolMonitor decides when the shared configuration is replaced, because its name pool grew too large.
+     */
+    public GoSaxonEngine(boolean debug, TemplatesCache templatesCache, DocumentStore documentStore,
+                         StylesheetStore stylesheetStore, Profiler profiler, NamePoolMonitor namePoolMonitor) {
+        this.debug = debug;
+        this.templatesCache = templatesCache;
+        this.documentStore = documentStore;
+        this.stylesheetStore = stylesheetStore;
+        this.profiler = profiler;
+        this.namePoolMonitor = namePoolMonitor;
+    }
+
+    /**
+     * Opens and loads the store, before anything else uses the shared configuration (see {@link StylesheetStore}).
+     */
+    private static StylesheetStore openStylesheetStore(GoSaxonOptions options) {
+        if (options.getStylesheetStore() == null) {
+            return null;
+        }
+        try {
+            StylesheetStore store = new StylesheetStore(options.getStylesheetStore(), options.getStylesheetStoreSize(),
+                PreinitializedSaxon.getConfiguration(), options.isDebug());
+            store.load();
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening stylesheet store " + options.getStylesheetStore(), e);
+        }
+    }
+
+    public TemplatesCache getTemplatesCache() {
+        return templatesCache;
+    }
+
+    public DocumentStore getDocumentStore() {
+        return documentStore;
+    }
+
+    /**
+     * @return the profiler or null, if the engine doesn't profile.
+     */
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * @return the store of compiled stylesheets or null, if there is none.
+     */
+    public StylesheetStore getStylesheetStore() {
+        return stylesheetStore;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public NamePoolMonitor getNamePoolMonitor() {
+        return namePoolMonitor;
+    }
+
+    /**
+     * Transforms the xml using the xslt and writes the result to the output stream.
+     * As the complete stylesheet is available, the compiled version is taken from the {@link TemplatesCache}.
+     *
+     * @return the timings and sizes of the transformation.
+     */
+    public TransformMetrics transform(byte[] xml, byte[] xslt, OutputStream outputStream) throws IOException, TransformerException {
+        return transform(new ByteArrayInputStream(xml), xslt, outputStream);
+    }
+
+    /**
+     * Same as {@link #transform(byte[], byte[], OutputStream)}, but reading the xml from a stream.
+     */
+    public TransformMetrics transform(InputStream xmlInputStream, byte[] xslt, OutputStream outputStream) throws IOException, TransformerException {
+        TransformMetrics metrics = new TransformMetrics();
+        Templates templates = getTemplates(xslt, metrics);
+        return transform(xmlInputStream, null, templates, outputStream, metrics);
+    }
+
+    /**
+     * Same as {@link #transform(byte[], byte[], OutputStream)}, but using a document from the {@link DocumentStore}.
+     */
+    public TransformMetrics transform(long documentHandle, byte[] xslt, OutputStream outputStream) throws TransformerException {
+        DocumentInfo document = documentStore.get(documentHandle);
+        if (document == null) {
+            throw new TransformerException("Unknown document handle: " + documentHandle);
+        }
+        TransformMetrics metrics = new TransformMetrics();
+        Controller controller = newController(getTemplates(xslt, metrics));
+        if (!controller.getConfiguration().isCompatible(document.getConfiguration())) {
+            // The configuration was replaced between looking up the document and compiling the stylesheet.
+            throw new TransformerException("Unknown document handle: " + documentHandle);
+        }
+        // The document is already parsed, but it might still need to be prepared for the stylesheet (e.g. stripping whitespace).
+        NodeInfo preparedDocument = controller.prepareInputTree(document);
+        return transform(controller, preparedDocument, outputStream, metrics);
+    }
+
+    /**
+     * Transforms the xml using an already compiled stylesheet.
+     */
+    public TransformMetrics transform(InputStream xmlInputStream, Templates templates, OutputStream outputStream) throws IOException, TransformerException {
+        return transform(xmlInputStream, null, templates, outputStream, new TransformMetrics());
+    }
+
+    /**
+     * Transforms a local file and writes the result directly to the output file, without ever holding the
+     * complete document or result in the Java heap. The input is read through a memory-mapped {@link FileChannel}.
+     * If the transformation fails, the partially written output file is deleted.
+     */
+    public TransformMetrics transform(Path xmlFile, Path xsltFile, Path outputFile) throws IOException, TransformerException {
+        TransformMetrics metrics = new TransformMetrics();
+        Templates templates = getTemplates(Files.readAllBytes(xsltFile), metrics);
+        try (FileChannel channel = FileChannel.open(xmlFile, StandardOpenOption.READ);
+             OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(outputFile), FILE_BUFFER_SIZE)) {
+            InputStream xmlInputStream;
+            if (channel.size() <= Integer.MAX_VALUE) {
+                xmlInputStream = new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } else {
+                // A single mapping is limited to 2GB, so larger files are simply streamed.
+                xmlInputStream = new BufferedInputStream(Channels.newInputStream(channel), FILE_BUFFER_SIZE);
+            }
+            // Allows resolving relative URIs in the document (e.g. document('other.xml')) against its location.
+            return transform(xmlInputStream, xmlFile.toUri().toString(), templates, outputStream, metrics);
+        } catch (IOException | TransformerException | RuntimeException e) {
+            Files.deleteIfExists(outputFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Transforms a document consisting of a list of records, without ever building a tree for the whole document.
+     * The input is streamed, each record (see {@link RecordSplitter} for how they are named) is cut out and
+     * transformed as a document of its own in parallel using the executor. The chunks are executed with the
+     * {@link RequestLimits} and {@link TransformParameters} of the calling thread. A chunk no thread of the executor
+     * has started yet (e.g. because it rejected it or all its threads are busy) is transformed by the calling thread,
+     * once its result is needed, so the executor may be the one executing the caller.
+     * The results are written in the order of the records, inside an element with the name of the wrapper
+     * (no wrapper element is written, if it's empty). At most {@link #MAX_RECORD_CHUNKS_IN_FLIGHT_PER_CORE} chunks of
+     * records per core are held in memory at any time, so the memory used doesn't depend on the size of the document.
+     *
+     * @throws TransformerException if any of the records failed, in which case the output is incomplete.
+     */
+    public TransformMetrics transformRecords(InputStream xmlInputStream, byte[] xslt, String recordName, String wrapper,
+                                             OutputStream outputStream, Executor executor) throws IOException, TransformerException {
+        if (!wrapper.isEmpty() && !Name10Checker.getInstance().isQName(wrapper)) {
+            throw new TransformerException("Invalid wrapper element name: " + wrapper);
+        }
+        TransformMetrics metrics = new TransformMetrics();
+        Templates templates = getTemplates(xslt, metrics);
+        CountingInputStream countingInputStream = new CountingInputStream(xmlInputStream, RequestLimits.current());
+        long start = System.nanoTime();
+        StreamSource xmlSource = createSource(countingInputStream);
+        metrics.record(TransformMetrics.Phase.BOM, start);
+
+        CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream, RequestLimits.current());
+        int maxInFlight = Runtime.getRuntime().availableProcessors() * MAX_RECORD_CHUNKS_IN_FLIGHT_PER_CORE;
+        RequestLimits limits = RequestLimits.current();
+        TransformParameters parameters = TransformParameters.current();
+        Deque<FutureTask<byte[]>> inFlight = new ArrayDeque<>();
+        start = System.nanoTime();
+        try (RecordSplitter splitter = new RecordSplitter(xmlSource, recordName)) {
+            if (!wrapper.isEmpty()) {
+                countingOutputStream.write(("<" + wrapper + ">").getBytes(StandardCharsets.UTF_8));
+            }
+            RecordChunk chunk = new RecordChunk(0);
+            long chunkStart = countingInputStream.getCount();
+            boolean more = true;
+            while (more) {
+                // The tree of the record is built right away while reading, only the transformation runs in parallel.
+                Controller controller = newController(templates);
+                Builder builder = controller.makeBuilder();
+                more = splitter.next(makePipeline(controller, builder));
+                if (more) {
+                    chunk.add(controller, builder.getCurrentRoot());
+                    builder.reset();
+                }
+                if (chunk.isEmpty() || (more && (countingInputStream.getCount() - chunkStart < RECORD_CHUNK_BYTES))) {
+                    continue;
+                }
+                if (inFlight.size() >= maxInFlight) {
+                    countingOutputStream.write(awaitChunk(inFlight.removeFirst()));
+                }
+                FutureTask<byte[]> task = new FutureTask<>(limits.bind(parameters.bind(chunk::transform)));
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // It is transformed by this thread, when its result is needed.
+                }
+                inFlight.addLast(task);
+                chunk = new RecordChunk(chunk.getNextIndex());
+                chunkStart = countingInputStream.getCount();
+            }
+            while (!inFlight.isEmpty()) {
+                countingOutputStream.write(awaitChunk(inFlight.removeFirst()));
+            }
+            if (!wrapper.isEmpty()) {
+                countingOutputStream.write(("</" + wrapper + ">").getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (XMLStreamException e) {
+            throw new TransformerException("Error reading records: " + e.getMessage(), e);
+        } catch (XPathException e) {
+            throw new TransformerException("Error building record: " + e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new TransformerException(e.getMessage());
+        } finally {
+            for (FutureTask<byte[]> task : inFlight) {
+                task.cancel(false);
+            }
+        }
+        metrics.record(TransformMetrics.Phase.TRANSFORM, start);
+        metrics.setInputBytes(countingInputStream.getCount());
+        metrics.setOutputBytes(countingOutputStream.getCount());
+        this.metrics.record(metrics);
+        checkNamePool();
+        return metrics;
+    }
+
+    private TransformMetrics transform(InputStream xmlInputStream, String systemId, Templates templates, OutputStream outputStream,
+                                       TransformMetrics metrics) throws IOException, TransformerException {
+        CountingInputStream countingInputStream = new CountingInputStream(xmlInputStream, RequestLimits.current());
+        long start = System.nanoTime();
+        StreamSource xmlSource = createSource(countingInputStream);
+        xmlSource.setSystemId(systemId);
+        metrics.record(TransformMetrics.Phase.BOM, start);
+
+        Controller controller = newController(templates);
+        start = System.nanoTime();
+        NodeInfo document = buildDocument(controller, xmlSource);
+        metrics.record(TransformMetrics.Phase.PARSE, start);
+        metrics.setInputBytes(countingInputStream.getCount());
+        return transform(controller, document, outputStream, metrics);
+    }
+
+    private TransformMetrics transform(Controller controller, NodeInfo document, OutputStream outputStream,
+                                       TransformMetrics metrics) throws TransformerException {
+        if (debug) {
+            System.err.println("Starting XSLT ...");
+        }
+        CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream, RequestLimits.current());
+        long start = System.nanoTime();
+        try {
+            controller.transformDocument(document, new StreamResult(countingOutputStream));
+        } catch (XPathException e) {
+            // Controller.transform() would have reported this, but transformDocument() leaves it to us.
+            controller.reportFatalError(e);
+            throw e;
+        }
+        metrics.record(TransformMetrics.Phase.TRANSFORM, start);
+        metrics.setOutputBytes(countingOutputStream.getCount());
+        this.metrics.record(metrics);
+        if (debug) {
+            System.err.println("Finished XSLT: " + metrics);
+        }
+        checkNamePool();
+        return metrics;
+    }
+
+    /**
+     * @return the result of the chunk, which is transformed by the calling thread, if no other thread started it yet.
+     */
+    private static byte[] awaitChunk(FutureTask<byte[]> task) throws IOException, TransformerException {
+        // Does nothing, if the task is already running or done.
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for records");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TransformerException) {
+                throw (TransformerException) cause;
+            }
+            if (cause instanceof IOException) {
+                // The deadline of the request passed, before the chunk was started.
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new TransformerException(cause);
+        }
+    }
+
+    /**
+     * Replaces the shared configuration, once its name pool grew too large. As the cached stylesheets and the stored
+     * documents use the names of the old name pool, they are dropped. Transformations still running finish with the
+     * old configuration.
+     */
+    private void checkNamePool() {
+        Configuration configuration = PreinitializedSaxon.getConfiguration();
+        if (!namePoolMonitor.isFull(configuration)) {
+            return;
+        }
+        Configuration renewed = PreinitializedSaxon.renewConfiguration(configuration);
+        if (renewed == null) {
+            // Another thread was faster.
+            return;
+        }
+        templatesCache.clear();
+        documentStore.clear();
+        if (stylesheetStore != null) {
+            stylesheetStore.reset(renewed);
+        }
+        namePoolMonitor.recordRenewal();
+        System.err.println("Replaced the Saxon configuration, its name pool contained "
+            + NamePoolMonitor.countNames(configuration.getNamePool()) + " names");
+    }
+
+    private Controller newController(Templates templates) throws TransformerException {
+        Controller controller = (Controller) templates.newTransformer();
+        controller.setErrorListener(ERROR_LISTENER);
+        controller.setURIResolver(documentStore);
+        if (profiler != null) {
+            controller.addTraceListener(profiler.newListener());
+        }
+        TransformParameters.current().apply(controller);
+        return controller;
+    }
+
+    /**
+     * Builds the tree the same way {@link Controller#transform(Source, javax.xml.transform.Result)} does,
+     * but as a separate step, so the time spent parsing can be told apart from the time spent transforming.
+     */
+    private static NodeInfo buildDocument(Controller controller, Source xmlSource) throws XPathException {
+        Builder builder = controller.makeBuilder();
+        Receiver receiver = makePipeline(controller, builder);
+        try {
+            new Sender(builder.getPipelineConfiguration()).send(xmlSource, receiver);
+        } catch (XPathException e) {
+            controller.reportFatalError(e);
+            throw e;
+        }
+        NodeInfo document = builder.getCurrentRoot();
+        builder.reset();
+        if (xmlSource.getSystemId() != null) {
+            controller.registerDocument(document.getDocumentRoot(), xmlSource.getSystemId());
+        }
+        return document;
+    }
+
+    /**
+     * @return the receiver feeding the builder, with the whitespace and type annotations stripped as required by the stylesheet.
+     */
+    private static Receiver makePipeline(Controller controller, Builder builder) {
+        Configuration controllerConfiguration = controller.getConfiguration();
+        Executable executable = controller.getExecutable();
+        Receiver receiver = builder;
+        if (controllerConfiguration.isStripsAllWhiteSpace() || executable.stripsWhitespace()) {
+            receiver = controller.makeStripper(receiver);
+        }
+        if (executable.stripsInputTypeAnnotations()) {
+            receiver = controllerConfiguration.getAnnotationStripper(receiver);
+        }
+        return receiver;
+    }
+
+    /**
+     * Parses the document, so it can be put into the {@link DocumentStore}.
+     */
+    public DocumentInfo buildDocument(InputStream xmlInputStream) throws IOException, TransformerException {
+        // Stylesheets and documents have to be built using the same configuration, in order to be able to use the
+        // stored documents with the cached stylesheets.
+        DocumentInfo document = PreinitializedSaxon.getConfiguration().buildDocument(
+            createSource(new CountingInputStream(xmlInputStream, RequestLimits.current())));
+        checkNamePool();
+        return document;
+    }
+
+    /**
+     * @return the compiled stylesheet, taken from the {@link TemplatesCache} if possible.
+     */
+    public Templates getTemplates(byte[] xslt) throws TransformerException {
+        return templatesCache.get(xslt, this::compile);
+    }
+
+    private Templates getTemplates(byte[] xslt, TransformMetrics metrics) throws TransformerException {
+        long start = System.nanoTime();
+        Templates templates = getTemplates(xslt);
+        metrics.record(TransformMetrics.Phase.COMPILE, start);
+        return templates;
+    }
+
+    private Templates compile(byte[] xslt) throws TransformerException {
+        // The precompiled and stored stylesheets were compiled without tracing, so they can't be profiled.
+        // Neither should the stylesheets compiled for profiling be kept in the store.
+        StylesheetStore stylesheetStore = (profiler == null) ? this.stylesheetStore : null;
+        Templates precompiled = (profiler == null) ? PreinitializedSaxon.getPrecompiled(xslt) : null;
+        if (precompiled != null) {
+            return precompiled;
+        }
+        String digest = null;
+        if (stylesheetStore != null) {
+            digest = TemplatesCache.digest(xslt);
+            Templates stored = stylesheetStore.get(digest);
+            if (stored != null) {
+                return stored;
+            }
+        }
+        if (debug) {
+            System.err.println("Compiling stylesheet ...");
+        }
+        Templates templates;
+        try {
+            Source xsltSource = createSource(new ByteArrayInputStream(xslt));
+            TransformerFactory transformerFactory = (profiler == null) ? PreinitializedSaxon.getTransformerFactory()
+                : PreinitializedSaxon.getTracingTransformerFactory();
+            templates = transformerFactory.newTemplates(xsltSource);
+        } catch (IOException e) {
+            throw new TransformerException(e);
+        }
+        if (stylesheetStore != null) {
+            stylesheetStore.put(digest, templates);
+        }
+        return templates;
+    }
+
+    /**
+     * Transforms the xml using the xslt and writes the result to the output stream.
+     */
+    public TransformMetrics transform(InputStream xmlInputStream, InputStream xsltInputStream, OutputStream outputStream) throws IOException, TransformerException {
+        // Read the stylesheet completely, so a precompiled version can be found by its content.
+        return transform(xmlInputStream, xsltInputStream.readAllBytes(), outputStream);
+    }
+
+    /**
+     * Creates a source for the stream, skipping a potential BOM. If the BOM names an encoding Java supports,
+     * the content is decoded using that encoding, otherwise it's up to the XML parser to detect it.
+     */
+    static StreamSource createSource(InputStream inputStream) throws IOException {
+        PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, GoSaxonTransformer.MAX_BOM_LENGTH);
+        String encoding = GoSaxonTransformer.getEncodingFromBomAndRemoveBom(pushbackInputStream);
+        if ((encoding != null) && Charset.isSupported(encoding)) {
+            return new StreamSource(new InputStreamReader(pushbackInputStream, encoding));
+        }
+        return new StreamSource(pushbackInputStream);
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command line options of the transformer executable.
+ *
+ * The first argument stays the plain "true"/"false" debug flag the Go library has always passed,
+ * everything after that is an optional "--name" or "--name=value" switch.
+ */
+public class GoSaxonOptions {
+
+    private boolean debug = false;
+    private boolean server = false;
+    private int port = 0;
+    private Path socketPath = null;
+    private boolean exitWithParent = false;
+    private int templatesCacheSize = 64;
+    private long templatesCacheMemory = 64L * 1024 * 1024;
+    private long documentStoreMemory = 256L * 1024 * 1024;
+    private Path stylesheetStore = null;
+    private int stylesheetStoreSize = 256;
+    private boolean profile = false;
+    private int namePoolLimit = 100000;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int queueSize = -1;
+
+    public static GoSaxonOptions parse(String[] args) {
+        GoSaxonOptions options = new GoSaxonOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                if (i != 0) {
+                    throw new IllegalArgumentException("Unexpected argument: " + arg);
+                }
+                options.debug = Boolean.parseBoolean(arg);
+                continue;
+            }
+            String name = arg.substring(2);
+            String value = null;
+            int separator = name.indexOf('=');
+            if (separator != -1) {
+                value = name.substring(separator + 1);
+                name = name.substring(0, separator);
+            }
+            switch (name) {
+                case "debug":
+                    options.debug = (value == null) || Boolean.parseBoolean(value);
+                    break;
+                case "server":
+                    options.server = (value == null) || Boolean.parseBoolean(value);
+                    break;
+                case "port":
+                    options.port = parseInt(name, value);
+                    break;
+                case "socket":
+                    if (value == null) {
+                        throw new IllegalArgumentException("Option --" + name + " requires a value");
+                    }
+                    options.socketPath = Paths.get(value);
+                    break;
+                case "exit-with-parent":
+                    options.exitWithParent = (value == null) || Boolean.parseBoolean(value);
+                    break;
+                case "templates-cache-size":
+                    options.templatesCacheSize = parseInt(name, value);
+                    break;
+                case "templates-cache-memory-mb":
+                    options.templatesCacheMemory = parseInt(name, value) * 1024L * 1024L;
+                    break;
+                case "document-store-memory-mb":
+                    options.documentStoreMemory = parseInt(name, value) * 1024L * 1024L;
+                    break;
+                case "stylesheet-store":
+                    if (value == null) {
+                        throw new IllegalArgumentException("Option --" + name + " requires a value");
+                    }
+                    options.stylesheetStore = Paths.get(value);
+                    break;
+                case "stylesheet-store-size":
+                    options.stylesheetStoreSize = parseInt(name, value);
+                    break;
+                case "profile":
+                    options.profile = (value == null) || Boolean.parseBoolean(value);
+                    break;
+                case "name-pool-limit":
+                    options.namePoolLimit = parseInt(name, value);
+                    break;
+                case "workers":
+                    options.workers = parseInt(name, value);
+                    break;
+                case "queue-size":
+                    options.queueSize = parseInt(name, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        return options;
+    }
+
+    static int parseInt(String name, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Option --" + name + " requires a value");
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a number, got: " + value);
+        }
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * @return true, if the transformer should run as long-lived server instead of handling one transformation.
+     */
+    public boolean isServer() {
+        return server;
+    }
+
+    /**
+     * @return port the server should listen on (0 = pick a random free port).
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return path of the Unix domain socket the server should listen on instead of a TCP port (null = use TCP).
+     */
+    public Path getSocketPath() {
+        return socketPath;
+    }
+
+    /**
+     * @return true, if the server should stop as soon as its standard input is closed. The caller keeps the
+     * standard input open for as long as it lives, so the server doesn't outlive it, even if it is never stopped.
+     */
+    public boolean isExitWithParent() {
+        return exitWithParent;
+    }
+
+    /**
+     * @return maximum number of compiled stylesheets kept in the {@link TemplatesCache} (0 = disabled).
+     */
+    public int getTemplatesCacheSize() {
+        return templatesCacheSize;
+    }
+
+    /**
+     * @return maximum estimated memory in bytes used by compiled stylesheets in the {@link TemplatesCache}.
+     */
+    public long getTemplatesCacheMemory() {
+        return templatesCacheMemory;
+    }
+
+    /**
+     * @return maximum estimated memory in bytes used by parsed documents in the {@link DocumentStore}.
+     */
+    public long getDocumentStoreMemory() {
+        return documentStoreMemory;
+    }
+
+    /**
+     * @return directory of the {@link StylesheetStore} keeping compiled stylesheets across restarts (null = none).
+     */
+    public Path getStylesheetStore() {
+        return stylesheetStore;
+    }
+
+    /**
+     * @return maximum number of compiled stylesheets kept in the {@link StylesheetStore}.
+     */
+    public int getStylesheetStoreSize() {
+        return stylesheetStoreSize;
+    }
+
+    /**
+     * @return true, if the stylesheets should be compiled with tracing, so the time spent in their templates and
+     * instructions is recorded by the {@link Profiler}. This slows down all transformations considerably.
+     */
+    public boolean isProfile() {
+        return profile;
+    }
+
+    /**
+     * @return number of names in the shared name pool, after which the Saxon configuration is replaced by a fresh
+     * one, see {@link NamePoolMonitor} (0 = never).
+     */
+    public int getNamePoolLimit() {
+        return namePoolLimit;
+    }
+
+    /**
+     * @return number of threads executing transformations in parallel (defaults to the number of cores).
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return number of transformations that may wait for a free worker before requests are rejected as busy
+     * (defaults to four times the number of workers).
+     */
+    public int getQueueSize() {
+        return (queueSize < 0) ? workers * 4 : queueSize;
+    }
+
+}
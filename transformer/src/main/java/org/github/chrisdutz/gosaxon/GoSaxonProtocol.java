@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format used by the {@link GoSaxonServer}.
+ *
+ * Every request starts with a single operation byte followed by the operation specific blocks.
+ * A block is a big-endian 32 bit length followed by that many bytes.
+ * Every response consists of a single status byte followed by one block containing the result
+ * (or the error message, if the status is not {@link #STATUS_SUCCESS}).
+ *
+ * Transform request:  [OP_TRANSFORM] [stylesheet block] [document block]
+ * Response:           [status] [result block]
+ *
+ * Transform with metrics: [OP_TRANSFORM_WITH_METRICS] [stylesheet block] [document block]
+ * Response:           [status] [result block] [metrics block]
+ * The metrics block contains the values of {@link TransformMetrics#toBlock()} or is empty, if the request failed.
+ *
+ * Stats request:      [OP_STATS]
+ * Response:           [status] [text block in the Prometheus text format]
+ *
+ * Put document:       [OP_PUT_DOCUMENT] [document block]
+ * Response:           [status] [8 byte handle block]
+ *
+ * Transform document: [OP_TRANSFORM_DOCUMENT] [stylesheet block] [8 byte handle block]
+ * Response:           [status] [result block]
+ *
+ * Release document:   [OP_RELEASE_DOCUMENT] [8 byte handle block]
+ * Response:           [status] [empty block]
+ *
+ * Transform file:     [OP_TRANSFORM_FILE] [stylesheet path block] [document path block] [output path block]
+ * Response:           [status] [8 byte size of the output file]
+ * The paths are UTF-8 encoded local paths, the result is written to the output file instead of being sent back.
+ *
+ * Transform records:  [OP_TRANSFORM_RECORDS] [stylesheet block] [record name block] [wrapper block] [document block]
+ * Response:           [status] [result block]
+ * The record and wrapper element names are UTF-8 encoded, an empty wrapper block means no wrapper element.
+ * See {@link GoSaxonEngine#transformRecords} for how the records are transformed.
+ *
+ * Profile:            [OP_PROFILE] [format block]
+ * Response:           [status] [text block]
+ * The format is "report" for the locations sorted by their exclusive time or "collapsed" for the collapsed stacks
+ * used by flame graph tools, see {@link Profiler}. The request fails, if the transformer doesn't profile.
+ *
+ * Limits:             [OP_WITH_LIMITS] [limits block] [any other request]
+ * Response:           the response of the other request
+ * The limits block consists of three big-endian 64 bit values: the timeout in milliseconds, the maximum number of
+ * bytes of the document to read and the maximum number of bytes of the result to write (0 = unlimited).
+ * Requests exceeding their timeout are answered with {@link #STATUS_TIMEOUT}, for batches the timeout applies to
+ * the whole batch and the size limits to each document.
+ *
+ * Parameters:         [OP_WITH_PARAMETERS] [parameters block] [any other request]
+ * Response:           the response of the other request
+ * The stylesheet parameters and output properties are applied to every transformation of the other request, see
+ * {@link TransformParameters} for the content of the block. The compiled stylesheet is cached independent of them.
+ * Limits and parameters can be combined, each prefix is allowed once per request.
+ *
+ * Transform stream:   [OP_TRANSFORM_STREAM] [stylesheet block] [document block]* [end marker (length -1)]
+ * Response:           [result block]* [end marker (length -1)] [status] [block]
+ * The document is sent in any number of blocks and parsed while it arrives, the result is sent in blocks of at most
+ * {@link ChunkedOutputStream#CHUNK_SIZE} bytes while it is produced. Neither is held in memory as a whole and the
+ * connection blocks whichever side is faster. The final block contains the error message, if the status is not
+ * {@link #STATUS_SUCCESS}, in which case the result blocks sent before are incomplete. If the transformation failed
+ * before the whole document was read, the rest is skipped, so the client should send the end marker as soon as it
+ * got the status. After a timeout the connection is closed, as the aborted transformation might still be reading.
+ *
+ * Batch request:      [OP_BATCH] [stylesheet block] [document block]* [end marker (length -1)]
+ * Response:           ([status] [32 bit index] [result block])* [status] [index -1] [block]
+ * The items are answered in the order of the documents, each tagged with the index of its document and
+ * with its own status. The final frame with index -1 is sent after the end marker has been read, its status
+ * is only not {@link #STATUS_SUCCESS}, if the batch failed as a whole (e.g. the stylesheet didn't compile).
+ */
+public final class GoSaxonProtocol {
+
+    public static final byte OP_TRANSFORM = 0x01;
+    public static final byte OP_STATS = 0x02;
+    public static final byte OP_PUT_DOCUMENT = 0x03;
+    public static final byte OP_TRANSFORM_DOCUMENT = 0x04;
+    public static final byte OP_RELEASE_DOCUMENT = 0x05;
+    public static final byte OP_BATCH = 0x06;
+    public static final byte OP_TRANSFORM_FILE = 0x07;
+    public static final byte OP_TRANSFORM_WITH_METRICS = 0x08;
+    public static final byte OP_TRANSFORM_RECORDS = 0x09;
+    public static final byte OP_WITH_LIMITS = 0x0A;
+    public static final byte OP_PROFILE = 0x0B;
+    public static final byte OP_WITH_PARAMETERS = 0x0C;
+    public static final byte OP_TRANSFORM_STREAM = 0x0D;
+
+    public static final byte STATUS_SUCCESS = 0x00;
+    public static final byte STATUS_FAILURE = 0x01;
+    /**
+     * The request was rejected without being executed, as all workers are busy and the queue is full.
+     */
+    public static final byte STATUS_BUSY = 0x02;
+    /**
+     * The request didn't finish before its deadline (see {@link #OP_WITH_LIMITS}) and was aborted.
+     */
+    public static final byte STATUS_TIMEOUT = 0x03;
+
+    private GoSaxonProtocol() {
+    }
+
+    /**
+     * Reads the operation byte of the next request.
+     *
+     * @return the operation or -1, if the client closed the connection between two requests.
+     */
+    public static int readOperation(DataInputStream in) throws IOException {
+        return in.read();
+    }
+
+    public static byte[] readBlock(DataInputStream in) throws IOException {
+        return readBlock(in, 0);
+    }
+
+    /**
+     * Reads a block, which must not be longer than maxLength bytes (0 = unlimited).
+     *
+     * @throws BlockTooLargeException if the block is longer, in which case it is skipped without allocating it.
+     */
+    public static byte[] readBlock(DataInputStream in, long maxLength) throws IOException {
+        byte[] block = readOptionalBlock(in, maxLength);
+        if (block == null) {
+            throw new IOException("Unexpected end marker");
+        }
+        return block;
+    }
+
+    /**
+     * @return the block or null, if the end marker (length -1) was read.
+     */
+    public static byte[] readOptionalBlock(DataInputStream in) throws IOException {
+        return readOptionalBlock(in, 0);
+    }
+
+    /**
+     * Same as {@link #readOptionalBlock(DataInputStream)}, but the block must not be longer than maxLength bytes
+     * (0 = unlimited).
+     *
+     * @throws BlockTooLargeException if the block is longer, in which case it is skipped without allocating it.
+     */
+    public static byte[] readOptionalBlock(DataInputStream in, long maxLength) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IOException("Invalid block length: " + length);
+        }
+        if ((maxLength != 0) && (length > maxLength)) {
+            in.skipNBytes(length);
+            throw new BlockTooLargeException("Input exceeds the limit of " + maxLength + " bytes");
+        }
+        byte[] block = new byte[length];
+        in.readFully(block);
+        return block;
+    }
+
+    /**
+     * Skips all blocks up to and including the end marker without reading them into memory.
+     */
+    public static void skipBlocks(DataInputStream in) throws IOException {
+        int length;
+        while ((length = in.readInt()) != -1) {
+            if (length < 0) {
+                throw new IOException("Invalid block length: " + length);
+            }
+            in.skipNBytes(length);
+        }
+    }
+
+    public static RequestLimits readLimits(DataInputStream in) throws IOException {
+        try {
+            return RequestLimits.fromBlock(readBlock(in));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    public static TransformParameters readParameters(DataInputStream in) throws IOException {
+        try {
+            return TransformParameters.fromBlock(readBlock(in));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    public static long readHandle(DataInputStream in) throws IOException {
+        byte[] block = readBlock(in);
+        if (block.length != 8) {
+            throw new IOException("Invalid handle length: " + block.length);
+        }
+        return ByteBuffer.wrap(block).getLong();
+    }
+
+    public static byte[] handleBlock(long handle) {
+        return ByteBuffer.allocate(8).putLong(handle).array();
+    }
+
+    public static void writeBlock(DataOutputStream out, byte[] block) throws IOException {
+        out.writeInt(block.length);
+        out.write(block);
+    }
+
+    /**
+     * Writes the first length bytes of the buffer as block.
+     */
+    public static void writeBlock(DataOutputStream out, byte[] buffer, int length) throws IOException {
+        out.writeInt(length);
+        out.write(buffer, 0, length);
+    }
+
+    public static void writeResponse(DataOutputStream out, byte status, byte[] payload) throws IOException {
+        out.writeByte(status);
+        writeBlock(out, payload);
+        out.flush();
+    }
+
+    /**
+     * Writes a single item of a batch response (without flushing).
+     */
+    public static void writeBatchItem(DataOutputStream out, byte status, int index, ByteArrayOutputStream payload) throws IOException {
+        out.writeByte(status);
+        out.writeInt(index);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+    }
+
+    /**
+     * Writes a response, directly streaming the content of the buffer without copying it first.
+     */
+    public static void writeResponse(DataOutputStream out, byte status, ByteArrayOutputStream payload) throws IOException {
+        out.writeByte(status);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+        out.flush();
+    }
+
+}
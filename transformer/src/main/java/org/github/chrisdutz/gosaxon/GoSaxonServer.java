@@ -0,0 +1,582 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import net.sf.saxon.om.DocumentInfo;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived variant of the {@link GoSaxonTransformer}.
+ *
+ * Instead of three sockets per transformation, the server listens on a single port (or Unix domain socket) and every
+ * accepted connection can be used for an unbounded sequence of requests using the framing described in
+ * {@link GoSaxonProtocol}.
+ */
+public class GoSaxonServer {
+
+    private final boolean debug;
+    private final ServerSocketChannel serverChannel;
+    private final Path socketPath;
+    private final GoSaxonEngine engine;
+    private final WorkerPool workerPool;
+    private final AtomicInteger connectionCounter = new AtomicInteger();
+    private volatile boolean running;
+
+    public GoSaxonServer(GoSaxonOptions options) throws IOException {
+        this.debug = options.isDebug();
+        this.socketPath = options.getSocketPath();
+        if (socketPath != null) {
+            // Remove a socket file left over by a previous run, otherwise binding fails.
+            Files.deleteIfExists(socketPath);
+            this.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+        } else {
+            this.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.INET);
+            serverChannel.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), options.getPort()), 50);
+        }
+        this.engine = new GoSaxonEngine(options);
+        this.workerPool = new WorkerPool(options.getWorkers(), options.getQueueSize());
+    }
+
+    /**
+     * @return the TCP port the server listens on or 0, if it listens on a Unix domain socket.
+     */
+    public int getPort() throws IOException {
+        if (socketPath != null) {
+            return 0;
+        }
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Accepts connections until {@link #stop()} is called.
+     * Each connection is handled by its own thread, which reads the requests and hands the actual
+     * transformations to the {@link WorkerPool}.
+     */
+    public void run() {
+        running = true;
+        while (running) {
+            try {
+                SocketChannel connection = serverChannel.accept();
+                if (socketPath == null) {
+                    connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                Thread connectionThread = new Thread(() -> handleConnection(connection),
+                    "gosaxon-connection-" + connectionCounter.incrementAndGet());
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Got error accepting connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        workerPool.shutdown();
+        if (engine.getStylesheetStore() != null) {
+            engine.getStylesheetStore().close();
+        }
+        try {
+            serverChannel.close();
+            if (socketPath != null) {
+                Files.deleteIfExists(socketPath);
+            }
+        } catch (IOException e) {
+            System.err.println("Got error stopping server: " + e.getMessage());
+        }
+    }
+
+    private void handleConnection(SocketChannel connection) {
+        if (debug) {
+            System.err.println("Client connected");
+        }
+        try (SocketChannel channel = connection) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(SocketChannelStreams.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(SocketChannelStreams.newOutputStream(channel)));
+            int operation;
+            while ((operation = GoSaxonProtocol.readOperation(in)) != -1) {
+                RequestLimits limits = null;
+                TransformParameters parameters = null;
+                // The prefixes can come in any order, but each of them only once.
+                while (true) {
+                    if ((operation == GoSaxonProtocol.OP_WITH_LIMITS) && (limits == null)) {
+                        limits = GoSaxonProtocol.readLimits(in);
+                    } else if ((operation == GoSaxonProtocol.OP_WITH_PARAMETERS) && (parameters == null)) {
+                        parameters = GoSaxonProtocol.readParameters(in);
+                    } else {
+                        break;
+                    }
+                    operation = GoSaxonProtocol.readOperation(in);
+                }
+                if (!handleRequest(operation, (limits != null) ? limits : RequestLimits.NONE,
+                    (parameters != null) ? parameters : TransformParameters.NONE, in, out)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Got error handling connection: " + e.getMessage());
+        }
+        if (debug) {
+            System.err.println("Client disconnected");
+        }
+    }
+
+    /**
+     * @return false, if the connection can't be used any longer.
+     */
+    private boolean handleRequest(int operation, RequestLimits limits, TransformParameters parameters,
+                                  DataInputStream in, DataOutputStream out) throws IOException {
+        try {
+            return dispatchRequest(operation, limits, parameters, in, out);
+        } catch (BlockTooLargeException e) {
+            // The document is the last block of every request, so the connection can be used for the next one.
+            System.err.println("Rejected request: " + e.getMessage());
+            GoSaxonProtocol.writeResponse(out, GoSaxonProtocol.STATUS_FAILURE, errorMessage(e));
+            return true;
+        }
+    }
+
+    private boolean dispatchRequest(int operation, RequestLimits limits, TransformParameters parameters,
+                                    DataInputStream in, DataOutputStream out) throws IOException {
+        switch (operation) {
+            case GoSaxonProtocol.OP_TRANSFORM:
+                handleTransform(in, out, limits, parameters, false);
+                break;
+            case GoSaxonProtocol.OP_TRANSFORM_WITH_METRICS:
+                handleTransform(in, out, limits, parameters, true);
+                break;
+            case GoSaxonProtocol.OP_PUT_DOCUMENT:
+                handlePutDocument(in, out, limits);
+                break;
+            case GoSaxonProtocol.OP_TRANSFORM_DOCUMENT:
+                handleTransformDocument(in, out, limits, parameters);
+                break;
+            case GoSaxonProtocol.OP_RELEASE_DOCUMENT:
+                handleReleaseDocument(in, out);
+                break;
+            case GoSaxonProtocol.OP_TRANSFORM_FILE:
+                handleTransformFile(in, out, limits, parameters);
+                break;
+            case GoSaxonProtocol.OP_TRANSFORM_RECORDS:
+                handleTransformRecords(in, out, limits, parameters);
+                break;
+            case GoSaxonProtocol.OP_TRANSFORM_STREAM:
+                return handleTransformStream(in, out, limits, parameters);
+            case GoSaxonProtocol.OP_BATCH:
+                handleBatch(in, out, limits, parameters);
+                break;
+            case GoSaxonProtocol.OP_PROFILE:
+                handleProfile(in, out);
+                break;
+            case GoSaxonProtocol.OP_STATS:
+                GoSaxonProtocol.writeResponse(out, GoSaxonProtocol.STATUS_SUCCESS,
+                    getStatistics().getBytes(StandardCharsets.UTF_8));
+                break;
+            default:
+                // We can't know how much data belongs to an unknown operation, so we can't continue.
+                GoSaxonProtocol.writeResponse(out, GoSaxonProtocol.STATUS_FAILURE,
+                    ("Unknown operation: " + operation).getBytes(StandardCharsets.UTF_8));
+                return false;
+        }
+        return true;
+    }
+
+    private void handleProfile(DataInputStream in, DataOutputStream out) throws IOException {
+        String format = new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8);
+        Profiler profiler = engine.getProfiler();
+        String message;
+        if (profiler == null) {
+            message = "Profiling is not enabled, start the transformer with --profile";
+        } else if (format.equals("report")) {
+            GoSaxonProtocol.writeResponse(out, GoSaxonProtocol.STATUS_SUCCESS,
+                profiler.getReport().getBytes(StandardCharsets.UTF_8));
+            return;
+        } else if (format.equals("collapsed")) {
+            GoSaxonProtocol.writeResponse(out, GoSaxonProtocol.STATUS_SUCCESS,
+                profiler.getCollapsedStacks().getBytes(StandardCharsets.UTF_8));
+            return;
+        } else {
+            message = "Unknown profile format: " + format;
+        }
+        GoSaxonProtocol.writeResponse(out, GoSaxonProtocol.STATUS_FAILURE, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handleTransform(DataInputStream in, DataOutputStream out, RequestLimits limits,
+                                 TransformParameters parameters, boolean sendMetrics) throws IOException {
+        byte[] xslt = GoSaxonProtocol.readBlock(in);
+        byte[] xml = GoSaxonProtocol.readBlock(in, limits.getMaxInputBytes());
+        execute("transform", limits, out, sendMetrics, parameters.bind(() -> {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            TransformMetrics metrics = engine.transform(xml, xslt, result);
+            return new Result(result, metrics);
+        }));
+    }
+
+    private void handlePutDocument(DataInputStream in, DataOutputStream out, RequestLimits limits) throws IOException {
+        byte[] xml = GoSaxonProtocol.readBlock(in, limits.getMaxInputBytes());
+        execute("put_document", limits, out, false, () -> {
+            DocumentInfo document = engine.buildDocument(new ByteArrayInputStream(xml));
+            long handle = engine.getDocumentStore().put(document, xml.length);
+            if (debug) {
+                System.err.println("Stored document " + handle);
+            }
+            ByteArrayOutputStream result = new ByteArrayOutputStream(8);
+            result.write(GoSaxonProtocol.handleBlock(handle));
+            return new Result(result, null);
+        });
+    }
+
+    private void handleTransformDocument(DataInputStream in, DataOutputStream out, RequestLimits limits,
+                                         TransformParameters parameters) throws IOException {
+        byte[] xslt = GoSaxonProtocol.readBlock(in);
+        long handle = GoSaxonProtocol.readHandle(in);
+        execute("transform_document", limits, out, false, parameters.bind(() -> {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            TransformMetrics metrics = engine.transform(handle, xslt, result);
+            return new Result(result, metrics);
+        }));
+    }
+
+    private void handleReleaseDocument(DataInputStream in, DataOutputStream out) throws IOException {
+        long handle = GoSaxonProtocol.readHandle(in);
+        if (engine.getDocumentStore().release(handle)) {
+            GoSaxonProtocol.writeResponse(out, GoSaxonProtocol.STATUS_SUCCESS, new byte[0]);
+        } else {
+            GoSaxonProtocol.writeResponse(out, GoSaxonProtocol.STATUS_FAILURE,
+                ("Unknown document handle: " + handle).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void handleTransformFile(DataInputStream in, DataOutputStream out, RequestLimits limits,
+                                     TransformParameters parameters) throws IOException {
+        String xsltPath = new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8);
+        String xmlPath = new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8);
+        String outputPath = new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8);
+        execute("transform_file", limits, out, false, parameters.bind(() -> {
+            Path outputFile = Paths.get(outputPath);
+            TransformMetrics metrics = engine.transform(Paths.get(xmlPath), Paths.get(xsltPath), outputFile);
+            ByteArrayOutputStream result = new ByteArrayOutputStream(8);
+            new DataOutputStream(result).writeLong(metrics.getOutputBytes());
+            return new Result(result, metrics);
+        }));
+    }
+
+    /**
+     * Transforms a document sent in chunks and sends the result in chunks, while it is produced.
+     *
+     * Unlike {@link #execute}, the worker reads the document from and writes the result to the connection itself,
+     * while this thread only waits for it to finish. Only then the rest of the document is skipped and the final
+     * status sent, except if the deadline passed: the worker might still be using the connection in that case.
+     *
+     * @return false, if the connection can't be used any longer.
+     */
+    private boolean handleTransformStream(DataInputStream in, DataOutputStream out, RequestLimits limits,
+                                          TransformParameters parameters) throws IOException {
+        long start = System.nanoTime();
+        byte[] xslt = GoSaxonProtocol.readBlock(in);
+        ChunkedInputStream xml = new ChunkedInputStream(in);
+        ChunkedOutputStream result = new ChunkedOutputStream(out);
+        Future<TransformMetrics> future;
+        try {
+            future = workerPool.submit(limits.bind(parameters.bind(() -> {
+                TransformMetrics metrics = engine.transform(xml, xslt, result);
+                result.flush();
+                return metrics;
+            })));
+        } catch (RejectedExecutionException e) {
+            if (debug) {
+                System.err.println("Rejected request, all workers are busy");
+            }
+            xml.skipRemaining();
+            finishStream(start, result, GoSaxonProtocol.STATUS_BUSY, "All workers are busy".getBytes(StandardCharsets.UTF_8));
+            return true;
+        }
+
+        try {
+            limits.await(future);
+        } catch (TimeoutException e) {
+            System.err.println("Request exceeded its timeout of " + limits.getTimeoutMillis() + " ms");
+            finishStream(start, result, GoSaxonProtocol.STATUS_TIMEOUT, timeoutMessage(limits));
+            return false;
+        } catch (ExecutionException e) {
+            Exception cause = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            System.err.println("Got error executing request: " + cause.getMessage());
+            byte status = limits.isExpired() ? GoSaxonProtocol.STATUS_TIMEOUT : GoSaxonProtocol.STATUS_FAILURE;
+            xml.skipRemaining();
+            finishStream(start, result, status, limits.isExpired() ? timeoutMessage(limits) : errorMessage(cause));
+            return true;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for request");
+        }
+        // The parser usually reads up to the end marker, but it doesn't have to.
+        xml.skipRemaining();
+        finishStream(start, result, GoSaxonProtocol.STATUS_SUCCESS, new byte[0]);
+        return true;
+    }
+
+    private void finishStream(long start, ChunkedOutputStream result, byte status, byte[] payload) throws IOException {
+        engine.getMetrics().recordRequest("transform_stream", status, System.nanoTime() - start);
+        result.finish(status, BatchResponseWriter.payload(payload));
+    }
+
+    /**
+     * Transforms the records of the document in parallel, see {@link GoSaxonEngine#transformRecords}. The chunks of
+     * records are executed on the {@link WorkerPool} as well, the worker executing the request helps out if needed.
+     */
+    private void handleTransformRecords(DataInputStream in, DataOutputStream out, RequestLimits limits,
+                                        TransformParameters parameters) throws IOException {
+        byte[] xslt = GoSaxonProtocol.readBlock(in);
+        String recordName = new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8);
+        String wrapper = new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8);
+        byte[] xml = GoSaxonProtocol.readBlock(in, limits.getMaxInputBytes());
+        execute("transform_records", limits, out, false, parameters.bind(() -> {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            TransformMetrics metrics = engine.transformRecords(new ByteArrayInputStream(xml), xslt, recordName, wrapper, result,
+                workerPool::execute);
+            return new Result(result, metrics);
+        }));
+    }
+
+    /**
+     * Compiles the stylesheet once and transforms all documents of the batch with it.
+     *
+     * The documents are handed to the {@link WorkerPool} while they are read, the results are sent by a
+     * {@link BatchResponseWriter} in their original order. The number of documents in flight is limited, so a
+     * client sending faster than we transform blocks instead of filling the memory.
+     */
+    private void handleBatch(DataInputStream in, DataOutputStream out, RequestLimits limits,
+                             TransformParameters parameters) throws IOException {
+        long start = System.nanoTime();
+        byte[] xslt = GoSaxonProtocol.readBlock(in);
+        Templates templates;
+        try {
+            templates = engine.getTemplates(xslt);
+        } catch (TransformerException e) {
+            System.err.println("Got error compiling batch stylesheet: " + e.getMessage());
+            // Skip the documents, so the connection can be used for the next request.
+            GoSaxonProtocol.skipBlocks(in);
+            GoSaxonProtocol.writeBatchItem(out, GoSaxonProtocol.STATUS_FAILURE, -1,
+                BatchResponseWriter.payload(errorMessage(e)));
+            out.flush();
+            engine.getMetrics().recordRequest("batch", GoSaxonProtocol.STATUS_FAILURE, System.nanoTime() - start);
+            return;
+        }
+
+        Semaphore inFlight = new Semaphore(workerPool.getWorkers() * 2);
+        // The deadline applies to the batch as a whole, the size limits to each of its documents.
+        BatchResponseWriter writer = new BatchResponseWriter(out, inFlight, limits);
+        Thread writerThread = new Thread(writer, Thread.currentThread().getName() + "-batch");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        try {
+            int index = 0;
+            while (true) {
+                byte[] xml;
+                try {
+                    xml = GoSaxonProtocol.readOptionalBlock(in, limits.getMaxInputBytes());
+                } catch (BlockTooLargeException e) {
+                    // Only this document fails, the block has been skipped.
+                    inFlight.acquire();
+                    writer.add(index++, CompletableFuture.failedFuture(e));
+                    continue;
+                }
+                if (xml == null) {
+                    break;
+                }
+                inFlight.acquire();
+                byte[] document = xml;
+                // The client is already streaming the batch and can't retry a single document, so instead of
+                // rejecting it, we wait for the workers to catch up. That blocks the client as well.
+                Future<ByteArrayOutputStream> future = workerPool.submitWhenAvailable(limits.bind(parameters.bind(() -> {
+                    ByteArrayOutputStream result = new ByteArrayOutputStream();
+                    engine.transform(new ByteArrayInputStream(document), templates, result);
+                    return result;
+                })));
+                writer.add(index++, future);
+            }
+            if (debug) {
+                System.err.println("Read batch of " + index + " documents");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading batch");
+        } finally {
+            writer.finish();
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (writer.getError() != null) {
+            throw writer.getError();
+        }
+        engine.getMetrics().recordRequest("batch", GoSaxonProtocol.STATUS_SUCCESS, System.nanoTime() - start);
+    }
+
+    /**
+     * Executes the work on the {@link WorkerPool} and sends its result (or the reason it failed) as response.
+     *
+     * If the request has a deadline and it passes, the work is cancelled and the request is answered with
+     * {@link GoSaxonProtocol#STATUS_TIMEOUT} right away.
+     *
+     * @param operation   name of the operation in the request metrics.
+     * @param limits      deadline and size limits enforced while executing the work.
+     * @param sendMetrics if true, a block with the {@link TransformMetrics} follows the result block (or an empty
+     *                    block, if there are none, e.g. because the request failed).
+     */
+    private void execute(String operation, RequestLimits limits, DataOutputStream out, boolean sendMetrics,
+                         Callable<Result> work) throws IOException {
+        long start = System.nanoTime();
+        Future<Result> future;
+        try {
+            future = workerPool.submit(limits.bind(work));
+        } catch (RejectedExecutionException e) {
+            if (debug) {
+                System.err.println("Rejected request, all workers are busy");
+            }
+            respond(operation, start, out, sendMetrics, GoSaxonProtocol.STATUS_BUSY,
+                BatchResponseWriter.payload("All workers are busy".getBytes(StandardCharsets.UTF_8)), null);
+            return;
+        }
+
+        Result result;
+        try {
+            result = limits.await(future);
+        } catch (TimeoutException e) {
+            System.err.println("Request exceeded its timeout of " + limits.getTimeoutMillis() + " ms");
+            respond(operation, start, out, sendMetrics, GoSaxonProtocol.STATUS_TIMEOUT,
+                BatchResponseWriter.payload(timeoutMessage(limits)), null);
+            return;
+        } catch (ExecutionException e) {
+            Exception cause = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            System.err.println("Got error executing request: " + cause.getMessage());
+            // The work might have been aborted by the deadline, while touching its input or output.
+            byte status = limits.isExpired() ? GoSaxonProtocol.STATUS_TIMEOUT : GoSaxonProtocol.STATUS_FAILURE;
+            respond(operation, start, out, sendMetrics, status, BatchResponseWriter.payload(
+                limits.isExpired() ? timeoutMessage(limits) : errorMessage(cause)), null);
+            return;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for request");
+        }
+        respond(operation, start, out, sendMetrics, GoSaxonProtocol.STATUS_SUCCESS, result.output, result.metrics);
+    }
+
+    static byte[] timeoutMessage(RequestLimits limits) {
+        return ("Request exceeded its timeout of " + limits.getTimeoutMillis() + " ms").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void respond(String operation, long start, DataOutputStream out, boolean sendMetrics, byte status,
+                         ByteArrayOutputStream payload, TransformMetrics metrics) throws IOException {
+        engine.getMetrics().recordRequest(operation, status, System.nanoTime() - start);
+        if (!sendMetrics) {
+            GoSaxonProtocol.writeResponse(out, status, payload);
+            return;
+        }
+        out.writeByte(status);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+        GoSaxonProtocol.writeBlock(out, (metrics != null) ? metrics.toBlock() : new byte[0]);
+        out.flush();
+    }
+
+    /**
+     * @return the current statistics in the Prometheus text format.
+     */
+    public String getStatistics() {
+        Map<String, Number> statistics = new LinkedHashMap<>();
+        engine.getTemplatesCache().collectStatistics(statistics);
+        statistics.put("gosaxon_precompiled_stylesheets", PreinitializedSaxon.getPrecompiledCount());
+        engine.getNamePoolMonitor().collectStatistics(PreinitializedSaxon.getConfiguration(), statistics);
+        if (engine.getStylesheetStore() != null) {
+            engine.getStylesheetStore().collectStatistics(statistics);
+        }
+        if (engine.getProfiler() != null) {
+            statistics.put("gosaxon_profiled_transformations_total", engine.getProfiler().getTransformations());
+        }
+        engine.getDocumentStore().collectStatistics(statistics);
+        engine.getMetrics().collectStatistics(statistics);
+        workerPool.collectStatistics(statistics);
+        Runtime runtime = Runtime.getRuntime();
+        statistics.put("gosaxon_memory_committed_bytes", runtime.totalMemory());
+        statistics.put("gosaxon_memory_used_bytes", runtime.totalMemory() - runtime.freeMemory());
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Number> entry : statistics.entrySet()) {
+            String type = entry.getKey().endsWith("_total") ? "counter" : "gauge";
+            sb.append("# TYPE ").append(entry.getKey()).append(' ').append(type).append('\n');
+            sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        engine.getMetrics().writeTo(sb);
+        return sb.toString();
+    }
+
+    static byte[] errorMessage(Throwable e) {
+        String message = e.getMessage();
+        if (message == null) {
+            message = e.getClass().getName();
+        }
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Output of a request executed on the {@link WorkerPool}.
+     */
+    private static final class Result {
+        private final ByteArrayOutputStream output;
+        private final TransformMetrics metrics;
+
+        private Result(ByteArrayOutputStream output, TransformMetrics metrics) {
+            this.output = output;
+            this.metrics = metrics;
+        }
+    }
+
+}
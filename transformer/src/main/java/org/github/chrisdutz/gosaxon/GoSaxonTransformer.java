@@ -39,11 +39,10 @@
 package org.github.chrisdutz.gosaxon;
 
 import javax.xml.transform.*;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Little application that opens two sockets (one for XML data and one for XSLT data) and
@@ -51,12 +50,45 @@ import java.net.Socket;
  */
 public class GoSaxonTransformer {
 
+    static final int MAX_BOM_LENGTH = 4;
+
+    /**
+     * Byte order marks and the (Java) names of the encodings they stand for.
+     * Longer marks have to come first, as for example the UTF-32 LE mark starts with the UTF-16 LE one.
+     */
+    private static final int[][] BOMS = {
+        {0x00, 0x00, 0xFE, 0xFF},
+        {0xFF, 0xFE, 0x00, 0x00},
+        {0x84, 0x31, 0x95, 0x33},
+        {0xDD, 0x73, 0x66, 0x73},
+        {0xEF, 0xBB, 0xBF},
+        {0x2B, 0x2F, 0x76},
+        {0xF7, 0x64, 0x4C},
+        {0x0E, 0xFE, 0xFF},
+        {0xFB, 0xEE, 0x28},
+        {0xFE, 0xFF},
+        {0xFF, 0xFE}
+    };
+    private static final String[] BOM_ENCODINGS = {
+        "UTF-32BE",
+        "UTF-32LE",
+        "GB18030",
+        "UTF-EBCDIC",
+        "UTF-8",
+        "UTF-7",
+        "UTF-1",
+        "SCSU",
+        "BOCU-1",
+        "UTF-16BE",
+        "UTF-16LE"
+    };
+
     private ServerSocket xmlSocket;
     private ServerSocket xsltSocket;
     private ServerSocket outputSocket;
     private Thread worker;
     private boolean debug;
-    private boolean running;
+    private final CountDownLatch finished = new CountDownLatch(1);
 
     public GoSaxonTransformer(boolean debug) {
         try {
@@ -73,36 +105,38 @@ public class GoSaxonTransformer {
                     if (debug) {
                         System.err.println("Waiting for client connections");
                     }
-                    Socket xmlSocketConnection = xmlSocket.accept();
-                    Socket xsltSocketConnection = xsltSocket.accept();
-                    Socket outputSocketConnection = outputSocket.accept();
-                    if (debug) {
-                        System.err.println("Client connected");
-                    }
+                    try (Socket xmlSocketConnection = xmlSocket.accept();
+                         Socket xsltSocketConnection = xsltSocket.accept();
+                         Socket outputSocketConnection = outputSocket.accept()) {
+                        if (debug) {
+                            System.err.println("Client connected");
+                        }
 
-                    // Get the streams and make sure the BOM is skipped.
-                    InputStream xmlInputStream = new BufferedInputStream(xmlSocketConnection.getInputStream());
-                    OutputStream xmlOutputStream = outputSocketConnection.getOutputStream();
-                    InputStream xsltInputStream = new BufferedInputStream(xsltSocketConnection.getInputStream());
+                        // Get the streams (The BOM is skipped as part of the transformation).
+                        InputStream xmlInputStream = new BufferedInputStream(xmlSocketConnection.getInputStream());
+                        OutputStream xmlOutputStream = outputSocketConnection.getOutputStream();
+                        InputStream xsltInputStream = new BufferedInputStream(xsltSocketConnection.getInputStream());
 
-                    if (debug) {
-                        System.err.println("Starting Transformation");
-                    }
-                    transform(xmlInputStream, xsltInputStream, xmlOutputStream);
-                    if (debug) {
-                        System.err.println("Finished Transformation");
+                        if (debug) {
+                            System.err.println("Starting Transformation");
+                        }
+                        transform(xmlInputStream, xsltInputStream, xmlOutputStream);
+                        if (debug) {
+                            System.err.println("Finished Transformation");
+                        }
                     }
+                    // Leaving the block closed the output connection, which tells the client all data has been sent.
 
-                    running = false;
                     if (debug) {
                         System.err.println("Done");
                     }
                 } catch (Exception e) {
                     System.err.println("Got error executing transformation thread: " + e.getMessage());
                     System.out.print("FAILURE");
+                } finally {
+                    finished.countDown();
                 }
             });
-            running = true;
             try {
                 if (debug) {
                     System.err.println("Starting transformer thread");
@@ -114,13 +148,22 @@ public class GoSaxonTransformer {
             } catch (Exception e) {
                 System.err.println("Got error executing transformation thread: " + e.getMessage());
                 System.out.print("FAILURE");
+                finished.countDown();
             }
         } catch (Exception e) {
             System.err.println("Got error executing setting up transformer: " + e.getMessage());
             System.out.print("FAILURE");
+            finished.countDown();
         }
     }
 
+    /**
+     * Blocks till the transformation is finished (successfully or not).
+     */
+    public void awaitTermination() throws InterruptedException {
+        finished.await();
+    }
+
     public void stop() {
         try {
             xmlSocket.close();
@@ -142,42 +185,7 @@ public class GoSaxonTransformer {
 
     public void transform(InputStream xmlInputStream, InputStream xsltInputStream, OutputStream xmlOutputStream) {
         try {
-            if (debug) {
-                System.err.println("Starting Cleaning input ...");
-            }
-            // TODO: We should probably do something with this ... but what?
-            /*String xmlEncoding = */
-            getEncodingFromBomAndRemoveBom(xmlInputStream);
-            // TODO: We should probably do something with this ... but what?
-            /*String xsltEncoding = */
-            getEncodingFromBomAndRemoveBom(xsltInputStream);
-            if (debug) {
-                System.err.println("Finished Cleaning input");
-            }
-
-            if (debug) {
-                System.err.println("Starting XSLT ...");
-            }
-            // Transform the input using the embedded XSLT.
-            TransformerFactory transformerFactory = new net.sf.saxon.TransformerFactoryImpl();
-            Transformer transformer = transformerFactory.newTransformer(new StreamSource(xsltInputStream));
-            transformer.setErrorListener(new ErrorListener() {
-                public void warning(TransformerException exception) {
-                    System.err.println("Got Warning: " + exception.getMessage());
-                }
-
-                public void error(TransformerException exception) {
-                    System.err.println("Got Error: " + exception.getMessage());
-                }
-
-                public void fatalError(TransformerException exception) {
-                    System.err.println("Got Fatal Error: " + exception.getMessage());
-                }
-            });
-            transformer.transform(new StreamSource(xmlInputStream), new StreamResult(xmlOutputStream));
-            if (debug) {
-                System.err.println("Finished XSLT");
-            }
+            new GoSaxonEngine(debug).transform(xmlInputStream, xsltInputStream, xmlOutputStream);
 
             // Signal the client that we're done.
             System.out.print("SUCCESS");
@@ -196,70 +204,60 @@ public class GoSaxonTransformer {
         }
     }
 
-    private String getEncodingFromBomAndRemoveBom(InputStream inputStream) throws IOException {
-        inputStream.mark(4);
-        while (inputStream.available() < 4) {
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                System.err.println(e.getMessage());
+    /**
+     * Reads the first bytes of the stream (blocking, till there are enough bytes or the stream ends),
+     * and checks if they are a byte order mark. Everything read that doesn't belong to the BOM is pushed back.
+     *
+     * @return the name of the encoding the BOM stands for or null, if there was no BOM.
+     */
+    static String getEncodingFromBomAndRemoveBom(PushbackInputStream inputStream) throws IOException {
+        byte[] head = new byte[MAX_BOM_LENGTH];
+        int length = 0;
+        while (length < head.length) {
+            int readBytes = inputStream.read(head, length, head.length - length);
+            if (readBytes == -1) {
+                break;
             }
+            length += readBytes;
         }
-        if (inputStream.available() >= 2) {
-            int first = inputStream.read();
-            int second = inputStream.read();
-            if ((first == 0xEF) && (second == 0xBB)) {
-                if ((inputStream.available() >= 1) && (inputStream.read() == 0xBF)) {
-                    return "UTF-8";
-                }
-            } else if ((first == 0xFF) && (second == 0xFE)) {
-                if ((inputStream.available() >= 2) && (inputStream.read() == 0x00) && (inputStream.read() == 0x00)) {
-                    return "UTF-32 (lE)";
-                } else {
-                    return "UTF-16 (LE)";
-                }
-            } else if ((first == 0xFE) && (second == 0xFF)) {
-                return "UTF-16 (BE)";
-            } else if ((first == 0x00) && (second == 0x00)) {
-                if ((inputStream.available() >= 2) && (inputStream.read() == 0xFE) && (inputStream.read() == 0xFF)) {
-                    return "UTF-32 (BE)";
-                }
-            } else if ((first == 0x2B) && (second == 0x2F)) {
-                if ((inputStream.available() >= 1) && (inputStream.read() == 0x76)) {
-                    return "UTF-7";
-                }
-            } else if ((first == 0xF7) && (second == 0x64)) {
-                if ((inputStream.available() >= 1) && (inputStream.read() == 0x4C)) {
-                    return "UTF-1";
-                }
-            } else if ((first == 0xDD) && (second == 0x73)) {
-                if ((inputStream.available() >= 2) && (inputStream.read() == 0x66) && (inputStream.read() == 0x73)) {
-                    return "EBCDIC";
-                }
-            } else if ((first == 0x0E) && (second == 0xFE)) {
-                if ((inputStream.available() >= 1) && (inputStream.read() == 0xFF)) {
-                    return "SCSU";
-                }
-            } else if ((first == 0xFB) && (second == 0xEE)) {
-                if ((inputStream.available() >= 1) && (inputStream.read() == 0x28)) {
-                    return "BOCU-1";
-                }
-            } else if ((first == 0x84) && (second == 0x31)) {
-                if ((inputStream.available() >= 2) && (inputStream.read() == 0x95) && (inputStream.read() == 0x33)) {
-                    return "GB-18030";
-                }
+        for (int i = 0; i < BOMS.length; i++) {
+            int[] bom = BOMS[i];
+            if (startsWith(head, length, bom)) {
+                inputStream.unread(head, bom.length, length - bom.length);
+                return BOM_ENCODINGS[i];
             }
         }
-        // There was no BOM, reset the read position.
-        inputStream.reset();
+        // There was no BOM, push back everything we read.
+        inputStream.unread(head, 0, length);
         return null;
     }
 
+    private static boolean startsWith(byte[] head, int length, int[] bom) {
+        if (length < bom.length) {
+            return false;
+        }
+        for (int i = 0; i < bom.length; i++) {
+            if ((head[i] & 0xFF) != bom[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     public static void main(String[] args) {
-        boolean debug = false;
-        if (args.length == 1) {
-            debug = Boolean.parseBoolean(args[0]);
+        GoSaxonOptions options;
+        try {
+            options = GoSaxonOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Got invalid arguments: " + e.getMessage());
+            System.out.print("FAILURE");
+            return;
+        }
+        boolean debug = options.isDebug();
+
+        if (options.isServer()) {
+            runServer(options);
+            return;
         }
 
         if (debug) {
@@ -277,13 +275,7 @@ public class GoSaxonTransformer {
                 System.err.println("Started");
             }
             // Wait till the transformer terminates.
-            while (transformer.running) {
-                try {
-                    Thread.sleep(100);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+            transformer.awaitTermination();
             if (debug) {
                 System.err.println("Finished");
             }
@@ -292,4 +284,56 @@ public class GoSaxonTransformer {
         }
     }
 
+    /**
+     * Runs the transformer as long-lived server, handling an unbounded sequence of transformation requests
+     * on a single port. Only the port number is sent back to the caller (8 characters hex encoded).
+     */
+    private static void runServer(GoSaxonOptions options) {
+        boolean debug = options.isDebug();
+        if (debug) {
+            System.err.println("Starting server ...");
+        }
+        try {
+            GoSaxonServer server = new GoSaxonServer(options);
+            // Tell the caller the port number (0, if the server listens on a Unix domain socket).
+            System.out.printf("%08X", server.getPort());
+            System.out.flush();
+
+            if (debug) {
+                System.err.println("Server started");
+            }
+            if (options.isExitWithParent()) {
+                watchParent(server, debug);
+            }
+            server.run();
+            if (debug) {
+                System.err.println("Server finished");
+            }
+        } catch (Exception e) {
+            System.err.println("Got Exception: " + e.getMessage());
+            System.out.print("FAILURE");
+        }
+    }
+
+    /**
+     * Stops the server, as soon as the standard input is closed (which happens at the latest when the caller exits).
+     */
+    private static void watchParent(GoSaxonServer server, boolean debug) {
+        Thread watcher = new Thread(() -> {
+            try {
+                while (System.in.read() != -1) {
+                    // Nothing is expected on the standard input, we only wait for it to be closed.
+                }
+            } catch (IOException e) {
+                // Treat it the same way as the input being closed.
+            }
+            if (debug) {
+                System.err.println("Standard input closed, stopping server");
+            }
+            server.stop();
+        }, "gosaxon-parent-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
 }
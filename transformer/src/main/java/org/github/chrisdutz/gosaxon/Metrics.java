@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Totals and latency histograms across all requests, written in the Prometheus text format.
+ *
+ * Phase timings and sizes are recorded by the {@link GoSaxonEngine} for every successful transformation,
+ * the duration and outcome of every request by the {@link GoSaxonServer}.
+ */
+public class Metrics {
+
+    private final Histogram[] phaseHistograms = new Histogram[TransformMetrics.Phase.values().length];
+    private final AtomicLong transformations = new AtomicLong();
+    private final AtomicLong inputBytes = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+
+    private final ConcurrentMap<String, Histogram> requestHistograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> requests = new ConcurrentHashMap<>();
+
+    public Metrics() {
+        for (int i = 0; i < phaseHistograms.length; i++) {
+            phaseHistograms[i] = new Histogram();
+        }
+    }
+
+    public void record(TransformMetrics metrics) {
+        for (TransformMetrics.Phase phase : TransformMetrics.Phase.values()) {
+            phaseHistograms[phase.ordinal()].record(metrics.getNanos(phase));
+        }
+        transformations.incrementAndGet();
+        inputBytes.addAndGet(metrics.getInputBytes());
+        outputBytes.addAndGet(metrics.getOutputBytes());
+    }
+
+    /**
+     * @param operation name of the operation (e.g. "transform").
+     * @param status    status the request was answered with.
+     * @param nanos     time from reading the request till the response was ready.
+     */
+    public void recordRequest(String operation, byte status, long nanos) {
+        requestHistograms.computeIfAbsent(operation, key -> new Histogram()).record(nanos);
+        String labels = "operation=\"" + operation + "\",status=\"" + statusLabel(status) + "\"";
+        requests.computeIfAbsent(labels, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    public long getTransformations() {
+        return transformations.get();
+    }
+
+    public void collectStatistics(Map<String, Number> statistics) {
+        statistics.put("gosaxon_transformations_total", getTransformations());
+        statistics.put("gosaxon_input_bytes_total", inputBytes.get());
+        statistics.put("gosaxon_output_bytes_total", outputBytes.get());
+    }
+
+    /**
+     * Writes the metrics with labels and the histograms, which don't fit into simple "name value" statistics.
+     */
+    public void writeTo(StringBuilder sb) {
+        sb.append("# TYPE gosaxon_requests_total counter\n");
+        requests.forEach((labels, count) ->
+            sb.append("gosaxon_requests_total{").append(labels).append("} ").append(count.get()).append('\n'));
+
+        sb.append("# TYPE gosaxon_request_duration_seconds histogram\n");
+        requestHistograms.forEach((operation, histogram) ->
+            histogram.writeTo(sb, "gosaxon_request_duration_seconds", "operation=\"" + operation + "\""));
+
+        sb.append("# TYPE gosaxon_phase_duration_seconds histogram\n");
+        for (TransformMetrics.Phase phase : TransformMetrics.Phase.values()) {
+            phaseHistograms[phase.ordinal()].writeTo(sb, "gosaxon_phase_duration_seconds",
+                "phase=\"" + phase.getLabel() + "\"");
+        }
+    }
+
+    private static String statusLabel(byte status) {
+        switch (status) {
+            case GoSaxonProtocol.STATUS_SUCCESS:
+                return "success";
+            case GoSaxonProtocol.STATUS_FAILURE:
+                return "failure";
+            case GoSaxonProtocol.STATUS_BUSY:
+                return "busy";
+            case GoSaxonProtocol.STATUS_TIMEOUT:
+                return "timeout";
+            default:
+                return Integer.toString(status);
+        }
+    }
+
+}
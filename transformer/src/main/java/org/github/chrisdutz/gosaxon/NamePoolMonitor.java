@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.NamePool;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the size of the {@link NamePool} of the shared configuration.
+ *
+ * Saxon allocates a code for every distinct element and attribute name and namespace URI it ever sees and never
+ * frees them, so a long-running transformer fed with documents using generated names (e.g. containing ids) grows
+ * without limit, until the pool runs out of codes and every transformation fails. Counting the names means walking
+ * the whole pool, so it's only done every {@link #CHECK_INTERVAL} transformations. Once the names or URIs exceed
+ * their limit, the engine replaces the configuration by a fresh one (see {@link PreinitializedSaxon#renewConfiguration}).
+ *
+ * Saxon doesn't expose the size of the pool, so it's read from its internal tables.
+ */
+public class NamePoolMonitor {
+
+    /**
+     * Transformations between two checks of the size.
+     */
+    static final int CHECK_INTERVAL = 1000;
+    /**
+     * URIs are limited to 32767 codes, the configuration is replaced long before they run out.
+     */
+    static final int MAX_URIS = 16384;
+
+    private static final Field HASH_SLOTS;
+    private static final Field NEXT_ENTRY;
+    private static final Field URIS_USED;
+
+    static {
+        Field hashSlots = null;
+        Field nextEntry = null;
+        Field urisUsed = null;
+        try {
+            hashSlots = NamePool.class.getDeclaredField("hashslots");
+            hashSlots.setAccessible(true);
+            nextEntry = Class.forName(NamePool.class.getName() + "$NameEntry").getDeclaredField("nextEntry");
+            nextEntry.setAccessible(true);
+            urisUsed = NamePool.class.getDeclaredField("urisUsed");
+            urisUsed.setAccessible(true);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Can't monitor the size of the name pool: " + e.getMessage());
+            hashSlots = null;
+        }
+        HASH_SLOTS = hashSlots;
+        NEXT_ENTRY = nextEntry;
+        URIS_USED = urisUsed;
+    }
+
+    private final int maxNames;
+    private final int checkInterval;
+    private final AtomicLong transformations = new AtomicLong();
+    private final AtomicLong renewals = new AtomicLong();
+
+    /**
+     * @param maxNames number of names after which the configuration should be replaced (0 = never).
+     */
+    public NamePoolMonitor(int maxNames) {
+        this(maxNames, CHECK_INTERVAL);
+    }
+
+    NamePoolMonitor(int maxNames, int checkInterval) {
+        this.maxNames = maxNames;
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Counts a transformation and checks the size of the name pool, if it's due.
+     *
+     * @return true, if the name pool of the configuration is too large and the configuration should be replaced.
+     */
+    public boolean isFull(Configuration configuration) {
+        if ((maxNames <= 0) || (HASH_SLOTS == null) || (transformations.incrementAndGet() % checkInterval != 0)) {
+            return false;
+        }
+        NamePool namePool = configuration.getNamePool();
+        return (countNames(namePool) >= maxNames) || (countUris(namePool) >= MAX_URIS);
+    }
+
+    public void recordRenewal() {
+        renewals.incrementAndGet();
+    }
+
+    public long getRenewals() {
+        return renewals.get();
+    }
+
+    /**
+     * @return the number of names in the pool or -1, if it can't be determined.
+     */
+    static int countNames(NamePool namePool) {
+        if (HASH_SLOTS == null) {
+            return -1;
+        }
+        try {
+            // The chains only ever grow, so reading them without holding the lock of the pool at most misses a
+            // name that is being added.
+            Object[] hashSlots = (Object[]) HASH_SLOTS.get(namePool);
+            int count = 0;
+            for (Object entry : hashSlots) {
+                for (; entry != null; entry = NEXT_ENTRY.get(entry)) {
+                    count++;
+                }
+            }
+            return count;
+        } catch (IllegalAccessException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the number of namespace URIs in the pool or -1, if it can't be determined.
+     */
+    static int countUris(NamePool namePool) {
+        if (HASH_SLOTS == null) {
+            return -1;
+        }
+        try {
+            return URIS_USED.getShort(namePool);
+        } catch (IllegalAccessException e) {
+            return -1;
+        }
+    }
+
+    public void collectStatistics(Configuration configuration, Map<String, Number> statistics) {
+        statistics.put("gosaxon_name_pool_names", countNames(configuration.getNamePool()));
+        statistics.put("gosaxon_name_pool_uris", countUris(configuration.getNamePool()));
+        statistics.put("gosaxon_name_pool_limit", maxNames);
+        statistics.put("gosaxon_configuration_renewals_total", getRenewals());
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import org.graalvm.nativeimage.UnmanagedMemory;
+import org.graalvm.nativeimage.c.type.CCharPointer;
+import org.graalvm.nativeimage.c.type.CTypeConversion;
+import org.graalvm.word.WordFactory;
+
+import java.io.OutputStream;
+
+/**
+ * OutputStream collecting its data in unmanaged (malloc'ed) memory, so the result of a transformation can be
+ * handed to the caller of the {@link GoSaxonCApi} without an additional copy.
+ * The caller takes over ownership of the buffer and has to release it using "gosaxon_free".
+ *
+ * Only usable inside a native image.
+ */
+public class NativeOutputStream extends OutputStream {
+
+    private CCharPointer buffer;
+    private int capacity;
+    private int size;
+
+    public NativeOutputStream(int initialCapacity) {
+        this.capacity = Math.max(initialCapacity, 16);
+        this.buffer = UnmanagedMemory.malloc(capacity);
+        this.size = 0;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        buffer.write(size, (byte) b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(size + len);
+        CTypeConversion.asByteBuffer(buffer.addressOf(size), len).put(b, off, len);
+        size += len;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public CCharPointer getBuffer() {
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity(long required) {
+        if (required <= capacity) {
+            return;
+        }
+        if (required > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Result exceeds the maximum size of 2GB");
+        }
+        capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(required, capacity * 2L));
+        buffer = UnmanagedMemory.realloc(buffer, WordFactory.unsigned(capacity));
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.om.NamePool;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The Saxon configuration shared by all engines of the process, together with the stylesheets compiled in advance.
+ *
+ * The native images initialize this class (and Saxon) at build time, so the configuration and the precompiled
+ * stylesheets are part of the image heap and no longer have to be set up at every start of the transformer.
+ * The stylesheets to precompile are listed in the system property {@value #PRECOMPILED_STYLESHEETS_PROPERTY}
+ * as comma separated files or directories (using all *.xsl and *.xslt files in them).
+ * A precompiled stylesheet is used, whenever a request contains exactly the same stylesheet.
+ *
+ * The configuration can be replaced by a fresh one at runtime (see {@link #renewConfiguration}), e.g. when its
+ * name pool grew too large. From then on the precompiled stylesheets can't be used any longer.
+ */
+public final class PreinitializedSaxon {
+
+    public static final String PRECOMPILED_STYLESHEETS_PROPERTY = "gosaxon.precompiled.stylesheets";
+
+    static final Configuration CONFIGURATION = new Configuration();
+    static final TransformerFactory TRANSFORMER_FACTORY = new TransformerFactoryImpl(CONFIGURATION);
+
+    private static final Map<String, Templates> PRECOMPILED = precompile(
+        System.getProperty(PRECOMPILED_STYLESHEETS_PROPERTY, ""), TRANSFORMER_FACTORY);
+
+    /**
+     * The name pool right after precompiling. Fresh configurations start with a copy of it, so the names of the
+     * precompiled stylesheets keep their codes, which the name pools saved by the {@link StylesheetStore} rely on.
+     */
+    private static final byte[] INITIAL_NAME_POOL = serializeNamePool(CONFIGURATION.getNamePool());
+
+    private static volatile TransformerFactoryImpl current = (TransformerFactoryImpl) TRANSFORMER_FACTORY;
+
+    private static TransformerFactoryImpl tracing;
+
+    private PreinitializedSaxon() {
+    }
+
+    /**
+     * @return the configuration used for compiling stylesheets and building documents from now on.
+     */
+    static Configuration getConfiguration() {
+        return current.getConfiguration();
+    }
+
+    /**
+     * @return the factory compiling stylesheets with the current configuration.
+     */
+    static TransformerFactory getTransformerFactory() {
+        return current;
+    }
+
+    /**
+     * @return a factory compiling stylesheets with tracing, as required for profiling. Its configuration is a copy of
+     * the current one sharing its name pool, so its stylesheets can be used with the documents of the current
+     * configuration, while the stylesheets of all other engines are still compiled without tracing.
+     */
+    static synchronized TransformerFactory getTracingTransformerFactory() {
+        Configuration configuration = getConfiguration();
+        if ((tracing == null) || !tracing.getConfiguration().isCompatible(configuration)) {
+            Configuration copy = configuration.copy();
+            copy.setCompileWithTracing(true);
+            tracing = new TransformerFactoryImpl(copy);
+        }
+        return tracing;
+    }
+
+    /**
+     * Replaces the current configuration by a fresh one, whose name pool only contains the names known right after
+     * precompiling. Stylesheets and documents of the old configuration keep working with each other, so
+     * transformations still running aren't affected, but they must not be mixed with those of the new one.
+     *
+     * @param expected the configuration to replace.
+     * @return the new configuration or null, if the expected configuration was already replaced.
+     */
+    static synchronized Configuration renewConfiguration(Configuration expected) {
+        if (getConfiguration() != expected) {
+            return null;
+        }
+        NamePool namePool = deserializeNamePool(INITIAL_NAME_POOL);
+        Configuration configuration = new Configuration();
+        configuration.setNamePool(namePool);
+        NamePool.setDefaultNamePool(namePool);
+        current = new TransformerFactoryImpl(configuration);
+        return configuration;
+    }
+
+    /**
+     * @return the precompiled version of the stylesheet or null, if it wasn't compiled in advance.
+     */
+    static Templates getPrecompiled(byte[] xslt) {
+        if (PRECOMPILED.isEmpty() || (getConfiguration() != CONFIGURATION)) {
+            return null;
+        }
+        return PRECOMPILED.get(TemplatesCache.digest(xslt));
+    }
+
+    static int getPrecompiledCount() {
+        return PRECOMPILED.size();
+    }
+
+    /**
+     * @return a digest identifying the set of precompiled stylesheets, so stylesheets serialized together with the
+     * names used by the precompiled stylesheets (see {@link StylesheetStore}) are only used with the same set.
+     */
+    static String getPrecompiledFingerprint() {
+        List<String> digests = new ArrayList<>(PRECOMPILED.keySet());
+        Collections.sort(digests);
+        return TemplatesCache.digest(String.join(",", digests).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compiles all stylesheets listed in the specification (comma separated files or directories).
+     * A stylesheet that doesn't compile fails the whole initialization, as this happens while building the image.
+     *
+     * @return the compiled stylesheets keyed by the {@link TemplatesCache#digest(byte[])} of their content.
+     */
+    static Map<String, Templates> precompile(String specification, TransformerFactory transformerFactory) {
+        Map<String, Templates> precompiled = new HashMap<>();
+        for (Path stylesheet : listStylesheets(specification)) {
+            try {
+                byte[] xslt = Files.readAllBytes(stylesheet);
+                Templates templates = transformerFactory.newTemplates(GoSaxonEngine.createSource(new ByteArrayInputStream(xslt)));
+                precompiled.put(TemplatesCache.digest(xslt), templates);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error reading stylesheet " + stylesheet, e);
+            } catch (TransformerConfigurationException e) {
+                throw new IllegalStateException("Error compiling stylesheet " + stylesheet + ": " + e.getMessage(), e);
+            }
+        }
+        return Collections.unmodifiableMap(precompiled);
+    }
+
+    private static byte[] serializeNamePool(NamePool namePool) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            synchronized (namePool) {
+                out.writeObject(namePool);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error serializing name pool", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static NamePool deserializeNamePool(byte[] serialized) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized)) {
+            {
+                enableResolveObject(true);
+            }
+
+            @Override
+            protected Object resolveObject(Object obj) {
+                // Saxon compares names and URIs by identity, relying on them being interned.
+                return (obj instanceof String) ? ((String) obj).intern() : obj;
+            }
+        }) {
+            return (NamePool) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Error deserializing name pool", e);
+        }
+    }
+
+    private static List<Path> listStylesheets(String specification) {
+        List<Path> stylesheets = new ArrayList<>();
+        for (String entry : specification.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            Path path = Paths.get(entry.trim());
+            if (!Files.isDirectory(path)) {
+                stylesheets.add(path);
+                continue;
+            }
+            try (Stream<Path> files = Files.list(path)) {
+                stylesheets.addAll(files
+                    .filter(file -> file.toString().endsWith(".xsl") || file.toString().endsWith(".xslt"))
+                    .sorted()
+                    .collect(Collectors.toList()));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error listing stylesheets in " + path, e);
+            }
+        }
+        return stylesheets;
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.StandardNames;
+import net.sf.saxon.trace.InstructionInfo;
+import net.sf.saxon.trace.Location;
+import net.sf.saxon.trace.TraceListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent in each template, function and instruction of the stylesheets, aggregated across all transformations.
+ *
+ * Profiling needs the stylesheets to be compiled with tracing, which is why it's a mode of the whole transformer
+ * (see {@link GoSaxonOptions#isProfile()}). Every transformation gets a {@link TraceListener} of its own
+ * ({@link #newListener()}), which adds its timings to the totals, once the transformation is done.
+ *
+ * For every location the number of calls, the inclusive time (including everything called from there, recursive
+ * calls only counted once) and the exclusive time (without the time spent in nested instructions) are recorded.
+ * The exclusive times are also recorded per call stack, so they can be written as collapsed stacks for flame graphs.
+ * XPath expressions aren't profiled on their own, their time counts for the instruction evaluating them.
+ */
+public class Profiler {
+
+    /**
+     * Limits the memory used for the call stacks, e.g. for deeply recursive stylesheets.
+     */
+    static final int MAX_STACKS = 10000;
+    static final String TRUNCATED_STACK = "[other stacks]";
+
+    private static final int MAX_DETAIL_LENGTH = 60;
+    private static final String[] DETAIL_PROPERTIES = {"name", "match", "select", "test"};
+
+    private final ConcurrentMap<String, Totals> locations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> stacks = new ConcurrentHashMap<>();
+    private final AtomicLong transformations = new AtomicLong();
+
+    /**
+     * @return a listener collecting the timings of a single transformation.
+     */
+    public TraceListener newListener() {
+        return new Listener();
+    }
+
+    public long getTransformations() {
+        return transformations.get();
+    }
+
+    /**
+     * @return one line per location, sorted by exclusive time with the most expensive location first.
+     */
+    public String getReport() {
+        List<Map.Entry<String, Totals>> entries = new ArrayList<>(locations.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().exclusiveNanos.sum(), a.getValue().exclusiveNanos.sum()));
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%10s %14s %14s  %s%n", "calls", "inclusive ms", "exclusive ms", "location"));
+        for (Map.Entry<String, Totals> entry : entries) {
+            Totals totals = entry.getValue();
+            sb.append(String.format(Locale.ROOT, "%10d %14.3f %14.3f  %s%n", totals.calls.sum(),
+                totals.inclusiveNanos.sum() / 1e6, totals.exclusiveNanos.sum() / 1e6, entry.getKey()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the call stacks in the collapsed format of flame graph tools: one line per stack (sorted), the frames
+     * separated by ';', followed by the exclusive time of the innermost frame in microseconds.
+     */
+    public String getCollapsedStacks() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(stacks).entrySet()) {
+            long micros = entry.getValue().sum() / 1000;
+            if (micros > 0) {
+                sb.append(entry.getKey()).append(' ').append(micros).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    public void reset() {
+        locations.clear();
+        stacks.clear();
+        transformations.set(0);
+    }
+
+    private void add(Map<String, long[]> locationTotals, Node root) {
+        for (Map.Entry<String, long[]> entry : locationTotals.entrySet()) {
+            long[] values = entry.getValue();
+            Totals totals = locations.computeIfAbsent(entry.getKey(), key -> new Totals());
+            totals.calls.add(values[0]);
+            totals.inclusiveNanos.add(values[1]);
+            totals.exclusiveNanos.add(values[2]);
+        }
+        for (Node child : root.children.values()) {
+            addStacks(child, child.label);
+        }
+        transformations.incrementAndGet();
+    }
+
+    private void addStacks(Node node, String stack) {
+        if (node.exclusiveNanos > 0) {
+            LongAdder total = stacks.get(stack);
+            if (total == null) {
+                String key = (stacks.size() < MAX_STACKS) ? stack : TRUNCATED_STACK;
+                total = stacks.computeIfAbsent(key, k -> new LongAdder());
+            }
+            total.add(node.exclusiveNanos);
+        }
+        for (Node child : node.children.values()) {
+            addStacks(child, stack + ';' + child.label);
+        }
+    }
+
+    /**
+     * Only XSLT instructions (including templates and functions) and literal result elements are profiled.
+     */
+    static boolean isProfiled(InstructionInfo info) {
+        int construct = info.getConstructType();
+        return (construct < 1024) || (construct == Location.LITERAL_RESULT_ELEMENT);
+    }
+
+    /**
+     * @return a label like 'xsl:template match="/fruits" (line 6)', which is safe to use in collapsed stacks.
+     */
+    static String label(InstructionInfo info) {
+        int construct = info.getConstructType();
+        StringBuilder sb = new StringBuilder();
+        sb.append((construct < 1024) ? StandardNames.getDisplayName(construct) : "literal-result-element");
+        for (String property : DETAIL_PROPERTIES) {
+            Object value = info.getProperty(property);
+            if (value != null) {
+                String detail = value.toString();
+                if (detail.length() > MAX_DETAIL_LENGTH) {
+                    detail = detail.substring(0, MAX_DETAIL_LENGTH) + "...";
+                }
+                sb.append(' ').append(property).append("=\"").append(detail).append('"');
+                break;
+            }
+        }
+        sb.append(" (");
+        String systemId = info.getSystemId();
+        if ((systemId != null) && !systemId.isEmpty()) {
+            sb.append(systemId.substring(systemId.lastIndexOf('/') + 1)).append(':');
+        } else {
+            sb.append("line ");
+        }
+        sb.append(info.getLineNumber()).append(')');
+        return sb.toString().replace(';', ',').replace('\n', ' ');
+    }
+
+    private static class Totals {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder inclusiveNanos = new LongAdder();
+        private final LongAdder exclusiveNanos = new LongAdder();
+    }
+
+    /**
+     * Node of the tree of call stacks of a single transformation.
+     */
+    private static class Node {
+        private final Node parent;
+        private final String label;
+        private final Map<String, Node> children = new HashMap<>();
+        private long exclusiveNanos;
+
+        private Node(Node parent, String label) {
+            this.parent = parent;
+            this.label = label;
+        }
+
+        private Node child(String label) {
+            Node child = children.get(label);
+            if (child == null) {
+                child = new Node(this, label);
+                children.put(label, child);
+            }
+            return child;
+        }
+    }
+
+    /**
+     * Collects the timings of one transformation without any synchronization and adds them to the totals on close.
+     */
+    private class Listener implements TraceListener {
+
+        private final Map<InstructionInfo, String> labels = new IdentityHashMap<>();
+        /**
+         * Per location: calls, inclusive and exclusive nanoseconds.
+         */
+        private Map<String, long[]> locationTotals = new HashMap<>();
+        /**
+         * Number of active calls per location, so the inclusive time of recursive calls is only counted once.
+         */
+        private final Map<String, int[]> active = new HashMap<>();
+        private final List<long[]> frames = new ArrayList<>();
+        private Node root = new Node(null, null);
+        private Node current = root;
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void enter(InstructionInfo info, XPathContext context) {
+            if (!isProfiled(info)) {
+                return;
+            }
+            String label = labels.computeIfAbsent(info, Profiler::label);
+            current = current.child(label);
+            active.computeIfAbsent(label, key -> new int[1])[0]++;
+            // Start time and time spent in nested instructions.
+            frames.add(new long[]{System.nanoTime(), 0});
+        }
+
+        @Override
+        public void leave(InstructionInfo info) {
+            if (!isProfiled(info) || frames.isEmpty()) {
+                return;
+            }
+            long[] frame = frames.remove(frames.size() - 1);
+            long inclusive = System.nanoTime() - frame[0];
+            long exclusive = inclusive - frame[1];
+            if (!frames.isEmpty()) {
+                frames.get(frames.size() - 1)[1] += inclusive;
+            }
+            String label = current.label;
+            long[] totals = locationTotals.computeIfAbsent(label, key -> new long[3]);
+            totals[0]++;
+            if (--active.get(label)[0] == 0) {
+                totals[1] += inclusive;
+            }
+            totals[2] += exclusive;
+            current.exclusiveNanos += exclusive;
+            current = current.parent;
+        }
+
+        @Override
+        public void startCurrentItem(Item item) {
+        }
+
+        @Override
+        public void endCurrentItem(Item item) {
+        }
+
+        @Override
+        public void close() {
+            add(locationTotals, root);
+            // The controller might be used for another transformation.
+            locationTotals = new HashMap<>();
+            active.clear();
+            frames.clear();
+            root = new Node(null, null);
+            current = root;
+        }
+    }
+
+}
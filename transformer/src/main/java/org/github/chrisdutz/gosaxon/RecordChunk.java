@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.event.ProxyReceiver;
+import net.sf.saxon.event.Receiver;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Consecutive records of a {@link GoSaxonEngine#transformRecords} request, which are transformed together by one task.
+ *
+ * Every record is still transformed as a document of its own, but the results of all records share one serializer,
+ * as setting up a serializer costs more than transforming a typical record.
+ */
+class RecordChunk {
+
+    private final int firstIndex;
+    private final List<Controller> controllers = new ArrayList<>();
+    private final List<NodeInfo> records = new ArrayList<>();
+
+    RecordChunk(int firstIndex) {
+        this.firstIndex = firstIndex;
+    }
+
+    void add(Controller controller, NodeInfo record) {
+        controllers.add(controller);
+        records.add(record);
+    }
+
+    boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    /**
+     * @return index of the first record of the chunk following this one.
+     */
+    int getNextIndex() {
+        return firstIndex + records.size();
+    }
+
+    /**
+     * Transforms all records of the chunk.
+     *
+     * @return the UTF-8 encoded results of the records, without an XML declaration.
+     * @throws TransformerException naming the record, if a record failed.
+     */
+    byte[] transform() throws TransformerException {
+        // The records are embedded in the output, so they mustn't come with an XML declaration of their own.
+        // The controllers carry the output properties of the stylesheet, including those set by the request.
+        Controller first = controllers.get(0);
+        Properties outputProperties = new Properties(first.getOutputProperties());
+        outputProperties.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        outputProperties.setProperty(OutputKeys.ENCODING, "UTF-8");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int index = firstIndex;
+        try {
+            Receiver serializer = first.getConfiguration().getSerializerFactory().getReceiver(
+                new StreamResult(output), first.makePipelineConfiguration(), outputProperties);
+            RecordBoundaryFilter filter = new RecordBoundaryFilter();
+            filter.setUnderlyingReceiver(serializer);
+            filter.setPipelineConfiguration(serializer.getPipelineConfiguration());
+            serializer.open();
+            Receiver messageEmitter = null;
+            for (; index < getNextIndex(); index++) {
+                Controller controller = controllers.get(index - firstIndex);
+                // Setting up the emitter for xsl:message is just as expensive, so it's shared as well.
+                if (messageEmitter != null) {
+                    controller.setMessageEmitter(messageEmitter);
+                }
+                try {
+                    controller.transformDocument(records.get(index - firstIndex), filter);
+                } catch (XPathException e) {
+                    controller.reportFatalError(e);
+                    throw e;
+                }
+                messageEmitter = controller.getMessageEmitter();
+            }
+            serializer.close();
+        } catch (TransformerException e) {
+            throw new TransformerException("Error transforming record " + index + ": " + e.getMessage(), e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Hides the start and end of each record's result from the shared serializer, so it sees one continuous sequence.
+     */
+    private static class RecordBoundaryFilter extends ProxyReceiver {
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void startDocument(int properties) {
+        }
+
+        @Override
+        public void endDocument() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
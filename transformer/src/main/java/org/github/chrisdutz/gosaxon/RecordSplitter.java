@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import net.sf.saxon.event.Receiver;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.StandardNames;
+import net.sf.saxon.tinytree.CharSlice;
+import net.sf.saxon.trans.XPathException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams through a document and cuts out the subtrees of all elements with a given name (the records),
+ * each sent as a document of its own to a {@link Receiver}. Nothing but the record currently being read is held
+ * in memory.
+ *
+ * The name is either a local name, matching elements in any namespace, or uses the Clark notation
+ * "{namespace-uri}local-name". Matching elements nested inside a record stay part of that record.
+ * All namespaces in scope of a record are declared on its root element, so it's a complete document by itself.
+ * Anything outside the records is skipped.
+ */
+public class RecordSplitter implements AutoCloseable {
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    private final XMLStreamReader reader;
+    private final String namespaceUri;
+    private final String localName;
+    /**
+     * Namespaces declared by the ancestors of the current element, one map (prefix to uri) per element.
+     */
+    private final Deque<Map<String, String>> namespaces = new ArrayDeque<>();
+
+    public RecordSplitter(StreamSource source, String recordName) throws XMLStreamException {
+        if (recordName.startsWith("{")) {
+            int end = recordName.indexOf('}');
+            if (end == -1) {
+                throw new IllegalArgumentException("Invalid record name: " + recordName);
+            }
+            this.namespaceUri = recordName.substring(1, end);
+            this.localName = recordName.substring(end + 1);
+        } else {
+            this.namespaceUri = null;
+            this.localName = recordName;
+        }
+        if (localName.isEmpty()) {
+            throw new IllegalArgumentException("Invalid record name: " + recordName);
+        }
+        this.reader = (source.getReader() != null) ?
+            INPUT_FACTORY.createXMLStreamReader(source.getReader()) :
+            INPUT_FACTORY.createXMLStreamReader(source.getInputStream());
+    }
+
+    /**
+     * Sends the next record as document of its own to the receiver (e.g. a tree builder).
+     *
+     * @return false, if there are no more records (in which case nothing was sent).
+     */
+    public boolean next(Receiver receiver) throws XMLStreamException, XPathException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isRecord()) {
+                    sendRecord(receiver);
+                    return true;
+                }
+                namespaces.push(declaredNamespaces());
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                namespaces.pop();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        reader.close();
+    }
+
+    private boolean isRecord() {
+        if (!localName.equals(reader.getLocalName())) {
+            return false;
+        }
+        return (namespaceUri == null) || namespaceUri.equals(nullToEmpty(reader.getNamespaceURI()));
+    }
+
+    /**
+     * Sends the subtree of the record element the reader is positioned on, leaving the reader on its end tag.
+     * The events go to the receiver directly, so the record doesn't have to be serialized and parsed again.
+     */
+    private void sendRecord(Receiver receiver) throws XMLStreamException, XPathException {
+        NamePool namePool = receiver.getPipelineConfiguration().getConfiguration().getNamePool();
+        receiver.open();
+        receiver.startDocument(0);
+
+        // The record's root element gets the declarations of all its ancestors, its own ones take precedence.
+        Map<String, String> inScope = new LinkedHashMap<>();
+        List<Map<String, String>> ancestors = new ArrayList<>(namespaces);
+        for (int i = ancestors.size() - 1; i >= 0; i--) {
+            inScope.putAll(ancestors.get(i));
+        }
+        inScope.putAll(declaredNamespaces());
+        sendStartElement(receiver, namePool, inScope);
+
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    sendStartElement(receiver, namePool, declaredNamespaces());
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    receiver.endElement();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.CDATA:
+                    receiver.characters(new CharSlice(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength()), 0, 0);
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    receiver.comment(reader.getText(), 0, 0);
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    receiver.processingInstruction(reader.getPITarget(), nullToEmpty(reader.getPIData()), 0, 0);
+                    break;
+                default:
+                    // Entity references are already resolved, there's nothing else inside an element.
+                    break;
+            }
+        }
+        receiver.endDocument();
+        receiver.close();
+    }
+
+    private void sendStartElement(Receiver receiver, NamePool namePool, Map<String, String> declarations) throws XPathException {
+        int nameCode = namePool.allocate(nullToEmpty(reader.getPrefix()), nullToEmpty(reader.getNamespaceURI()), reader.getLocalName());
+        receiver.startElement(nameCode, StandardNames.XS_UNTYPED, 0, 0);
+        for (Map.Entry<String, String> declaration : declarations.entrySet()) {
+            receiver.namespace(namePool.allocateNamespaceCode(declaration.getKey(), declaration.getValue()), 0);
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            int attributeCode = namePool.allocate(nullToEmpty(reader.getAttributePrefix(i)),
+                nullToEmpty(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i));
+            receiver.attribute(attributeCode, StandardNames.XS_UNTYPED_ATOMIC, reader.getAttributeValue(i), 0, 0);
+        }
+        receiver.startContent();
+    }
+
+    private Map<String, String> declaredNamespaces() {
+        Map<String, String> declarations = new LinkedHashMap<>();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            declarations.put(nullToEmpty(reader.getNamespacePrefix(i)), nullToEmpty(reader.getNamespaceURI(i)));
+        }
+        return declarations;
+    }
+
+    private static String nullToEmpty(String value) {
+        return (value != null) ? value : "";
+    }
+
+}
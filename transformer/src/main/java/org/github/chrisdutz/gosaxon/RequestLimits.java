@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Deadline and size limits of a single request.
+ *
+ * The limits are bound to the thread executing the request (see {@link #bind(Callable)}), so the streams the engine
+ * reads the document from and writes the result to can enforce them, without passing them through every method.
+ * Once the deadline has passed or a limit is exceeded, every further read or write fails, which aborts the
+ * parser or the transformation at its next access to the input or output.
+ */
+public final class RequestLimits {
+
+    /**
+     * No deadline and no size limits.
+     */
+    public static final RequestLimits NONE = new RequestLimits(0, 0, 0);
+
+    private static final ThreadLocal<RequestLimits> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    private final long timeoutMillis;
+    private final long deadlineNanos;
+    private final long maxInputBytes;
+    private final long maxOutputBytes;
+
+    /**
+     * @param timeoutMillis  time the request may take from now on (0 = unlimited).
+     * @param maxInputBytes  maximum number of bytes of the document to read (0 = unlimited).
+     * @param maxOutputBytes maximum number of bytes of the result to write (0 = unlimited).
+     */
+    public RequestLimits(long timeoutMillis, long maxInputBytes, long maxOutputBytes) {
+        if ((timeoutMillis < 0) || (maxInputBytes < 0) || (maxOutputBytes < 0)) {
+            throw new IllegalArgumentException("Limits must not be negative");
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.maxInputBytes = maxInputBytes;
+        this.maxOutputBytes = maxOutputBytes;
+    }
+
+    /**
+     * Decodes the limits block of a request (see {@link GoSaxonProtocol}), the deadline starts now.
+     */
+    public static RequestLimits fromBlock(byte[] block) {
+        if (block.length != 24) {
+            throw new IllegalArgumentException("Invalid limits length: " + block.length);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        return new RequestLimits(buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * @return the limits of the request executed by the current thread.
+     */
+    public static RequestLimits current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the work, executing with these limits bound to the executing thread. The work fails right away,
+     * if the deadline already passed (e.g. while it was waiting in the queue).
+     */
+    public <T> Callable<T> bind(Callable<T> work) {
+        if (this == NONE) {
+            return work;
+        }
+        return () -> {
+            checkDeadline();
+            RequestLimits previous = CURRENT.get();
+            CURRENT.set(this);
+            try {
+                return work.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * Work can be bound on a thread that already executes a request (e.g. the chunks of records), which keeps its own.
+     */
+    private static void restore(RequestLimits previous) {
+        if (previous == NONE) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Waits for the result of the work, but not beyond the deadline. If the deadline passes, the work is cancelled.
+     *
+     * @throws TimeoutException if the deadline passed before the work was finished.
+     */
+    public <T> T await(Future<T> future) throws ExecutionException, InterruptedException, TimeoutException {
+        if (timeoutMillis == 0) {
+            return future.get();
+        }
+        try {
+            return future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Interrupts the worker, if it's running. Saxon doesn't check for that, but the streams fail from now on.
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    public boolean hasDeadline() {
+        return timeoutMillis != 0;
+    }
+
+    public boolean isExpired() {
+        return (timeoutMillis != 0) && (System.nanoTime() - deadlineNanos >= 0);
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return the maximum number of bytes of the document (0 = unlimited).
+     */
+    public long getMaxInputBytes() {
+        return maxInputBytes;
+    }
+
+    void checkDeadline() throws IOException {
+        if (isExpired()) {
+            throw new IOException("Request exceeded its timeout of " + timeoutMillis + " ms");
+        }
+    }
+
+    void checkInput(long bytes) throws IOException {
+        if ((maxInputBytes != 0) && (bytes > maxInputBytes)) {
+            throw new IOException("Input exceeds the limit of " + maxInputBytes + " bytes");
+        }
+        checkDeadline();
+    }
+
+    void checkOutput(long bytes) throws IOException {
+        if ((maxOutputBytes != 0) && (bytes > maxOutputBytes)) {
+            throw new IOException("Output exceeds the limit of " + maxOutputBytes + " bytes");
+        }
+        checkDeadline();
+    }
+
+}
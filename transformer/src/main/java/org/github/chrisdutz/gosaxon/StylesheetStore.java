@@ -0,0 +1,451 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.PreparedStylesheet;
+import net.sf.saxon.Version;
+import net.sf.saxon.om.NamePool;
+
+import javax.xml.transform.Templates;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk store of compiled stylesheets, so a restarted transformer doesn't have to compile them again.
+ *
+ * Saxon stylesheets are Java serializable, but the names they use are encoded as codes of the {@link NamePool} they
+ * were compiled with. So the store keeps a snapshot of the name pool together with the stylesheets in a single file,
+ * which is only valid for the Saxon version in its name. On {@link #load()} the configuration adopts the stored name
+ * pool, which is why the store has to be loaded before the configuration is used for anything else.
+ *
+ * The file is protected by a checksum. A damaged file, a file of another format, Saxon version or set of
+ * precompiled stylesheets is ignored as a whole, a stylesheet that can't be deserialized only by itself.
+ * In both cases the stylesheets are simply compiled again. Stylesheets are deserialized on first use, newly compiled
+ * ones are saved in the background shortly after being compiled. If several transformers share the directory,
+ * the last one saving wins.
+ *
+ * When the engine replaces the configuration (see {@link PreinitializedSaxon#renewConfiguration}), the store drops
+ * all stylesheets and saves itself with the fresh name pool, so a restarted transformer doesn't adopt the large one.
+ */
+public class StylesheetStore {
+
+    static final String FILE_PREFIX = "stylesheets-saxon-";
+    static final String FILE_SUFFIX = ".ser";
+
+    private static final byte[] MAGIC = "GOSAXONS".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 1;
+    private static final int CHECKSUM_LENGTH = 32;
+    /**
+     * Stylesheets compiled within this time are saved together.
+     */
+    static final long SAVE_DELAY_MILLIS = 1000;
+
+    /**
+     * Stands in for the objects of the process serialized stylesheets refer to.
+     */
+    private enum Shared {
+        CONFIGURATION, NAME_POOL
+    }
+
+    private final Path file;
+    private final int maxEntries;
+    private final boolean debug;
+    private Configuration configuration;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ScheduledExecutorService saver;
+    private final Object saveLock = new Object();
+    private final AtomicBoolean savePending = new AtomicBoolean();
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong saveFailures = new AtomicLong();
+
+    /**
+     * @param directory  directory of the store, which is created if necessary.
+     * @param maxEntries maximum number of stylesheets kept, the least recently used are dropped first.
+     */
+    public StylesheetStore(Path directory, int maxEntries, Configuration configuration, boolean debug) throws IOException {
+        Files.createDirectories(directory);
+        this.file = directory.resolve(FILE_PREFIX + Version.getProductVersion() + FILE_SUFFIX);
+        this.maxEntries = maxEntries;
+        this.configuration = configuration;
+        this.debug = debug;
+        this.saver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gosaxon-stylesheet-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the stored stylesheets and lets the configuration adopt the stored name pool.
+     *
+     * @return the number of stylesheets read, 0 if there are none or the file can't be used.
+     */
+    public int load() {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            return reject("Error reading stylesheet store " + file + ": " + e.getMessage());
+        }
+        if ((content.length < CHECKSUM_LENGTH)
+            || !Arrays.equals(checksum(content, content.length - CHECKSUM_LENGTH),
+                Arrays.copyOfRange(content, content.length - CHECKSUM_LENGTH, content.length))) {
+            return reject("Stylesheet store " + file + " is damaged, compiling all stylesheets again");
+        }
+
+        NamePool namePool;
+        Map<String, byte[]> stylesheets = new LinkedHashMap<>();
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - CHECKSUM_LENGTH));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || (in.readInt() != FORMAT_VERSION)) {
+                return reject("Stylesheet store " + file + " has an unknown format, compiling all stylesheets again");
+            }
+            String saxonVersion = in.readUTF();
+            String precompiled = in.readUTF();
+            if (!saxonVersion.equals(Version.getProductVersion()) || !precompiled.equals(PreinitializedSaxon.getPrecompiledFingerprint())) {
+                return reject("Stylesheet store " + file + " was written for other stylesheets or another Saxon version, compiling all stylesheets again");
+            }
+            namePool = (NamePool) deserialize(readBlock(in), configuration);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                stylesheets.put(in.readUTF(), readBlock(in));
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            return reject("Error reading stylesheet store " + file + ": " + e.getMessage());
+        }
+
+        // The stored name pool contains all names of the stylesheets compiled in advance (the fingerprint matched)
+        // with the same codes, plus the names of the stored stylesheets.
+        synchronized (this) {
+            configuration.setNamePool(namePool);
+            NamePool.setDefaultNamePool(namePool);
+            for (Map.Entry<String, byte[]> stylesheet : stylesheets.entrySet()) {
+                entries.put(stylesheet.getKey(), new Entry(stylesheet.getValue(), null));
+            }
+            evict();
+        }
+        if (debug) {
+            System.err.println("Loaded " + stylesheets.size() + " stylesheets from " + file);
+        }
+        return stylesheets.size();
+    }
+
+    /**
+     * @return the stored stylesheet or null, if it isn't stored or can't be deserialized.
+     */
+    public Templates get(String digest) {
+        Entry entry;
+        Configuration configuration;
+        synchronized (this) {
+            entry = entries.get(digest);
+            configuration = this.configuration;
+        }
+        if (entry == null) {
+            return null;
+        }
+        Templates templates = entry.templates;
+        if (templates == null) {
+            try {
+                PreparedStylesheet stylesheet = (PreparedStylesheet) deserialize(entry.serialized, configuration);
+                stylesheet.setConfiguration(configuration);
+                stylesheet.getExecutable().setConfiguration(configuration);
+                templates = stylesheet;
+                entry.templates = templates;
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                synchronized (this) {
+                    entries.remove(digest, entry);
+                }
+                reject("Error reading stored stylesheet " + digest + ": " + e.getMessage());
+                return null;
+            }
+        }
+        loads.incrementAndGet();
+        return templates;
+    }
+
+    /**
+     * Adds a newly compiled stylesheet, which is saved shortly after.
+     */
+    public void put(String digest, Templates templates) {
+        if (!(templates instanceof PreparedStylesheet)) {
+            return;
+        }
+        synchronized (this) {
+            if (((PreparedStylesheet) templates).getConfiguration() != configuration) {
+                // Compiled with a configuration replaced in the meantime, its names aren't in our name pool.
+                return;
+            }
+            entries.put(digest, new Entry(null, templates));
+            evict();
+        }
+        if (savePending.compareAndSet(false, true)) {
+            saver.schedule(this::save, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Drops all stylesheets, which were compiled with the old configuration, and continues with the new one.
+     * The store is saved shortly after, so it no longer contains the old name pool.
+     */
+    public void reset(Configuration configuration) {
+        synchronized (this) {
+            this.configuration = configuration;
+            entries.clear();
+        }
+        if (savePending.compareAndSet(false, true)) {
+            saver.schedule(this::save, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Saves pending changes right away and stops saving in the background.
+     */
+    public void close() {
+        saver.shutdownNow();
+        if (savePending.get()) {
+            save();
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries) && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Writes all stylesheets to a temporary file, which then replaces the store file, so the store file is
+     * always complete, even if the transformer is killed while saving.
+     */
+    void save() {
+        synchronized (saveLock) {
+            savePending.set(false);
+            saveNow();
+        }
+    }
+
+    private void saveNow() {
+        Path tempFile = null;
+        try {
+            // The stylesheets always belong to the configuration they are saved with, even if it's replaced meanwhile.
+            List<Map.Entry<String, Entry>> snapshot;
+            Configuration configuration;
+            synchronized (this) {
+                snapshot = new ArrayList<>(entries.entrySet());
+                configuration = this.configuration;
+            }
+            List<String> digests = new ArrayList<>();
+            List<byte[]> stylesheets = new ArrayList<>();
+            for (Map.Entry<String, Entry> entry : snapshot) {
+                Entry value = entry.getValue();
+                if (value.serialized == null) {
+                    try {
+                        value.serialized = serialize(value.templates, configuration);
+                    } catch (IOException e) {
+                        // Some stylesheets refer to objects that can't be serialized (e.g. extension functions).
+                        if (debug) {
+                            System.err.println("Can't store stylesheet " + entry.getKey() + ": " + e.getMessage());
+                        }
+                        synchronized (this) {
+                            entries.remove(entry.getKey(), value);
+                        }
+                        continue;
+                    }
+                }
+                digests.add(entry.getKey());
+                stylesheets.add(value.serialized);
+            }
+            // The name pool is only written after the stylesheets, so it contains all of their names.
+            NamePool namePool = configuration.getNamePool();
+            byte[] serializedNamePool;
+            synchronized (namePool) {
+                serializedNamePool = serialize(namePool, configuration);
+            }
+
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(content);
+            out.write(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(Version.getProductVersion());
+            out.writeUTF(PreinitializedSaxon.getPrecompiledFingerprint());
+            writeBlock(out, serializedNamePool);
+            out.writeInt(digests.size());
+            for (int i = 0; i < digests.size(); i++) {
+                out.writeUTF(digests.get(i));
+                writeBlock(out, stylesheets.get(i));
+            }
+            out.write(checksum(content.toByteArray(), content.size()));
+
+            tempFile = Files.createTempFile(file.getParent(), FILE_PREFIX, ".tmp");
+            Files.write(tempFile, content.toByteArray());
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tempFile = null;
+            saves.incrementAndGet();
+            if (debug) {
+                System.err.println("Saved " + digests.size() + " stylesheets to " + file);
+            }
+        } catch (IOException e) {
+            saveFailures.incrementAndGet();
+            System.err.println("Error saving stylesheet store " + file + ": " + e.getMessage());
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    // Ignore, it's only a leftover.
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public void collectStatistics(Map<String, Number> statistics) {
+        statistics.put("gosaxon_stylesheet_store_entries", size());
+        statistics.put("gosaxon_stylesheet_store_loads_total", loads.get());
+        statistics.put("gosaxon_stylesheet_store_rejected_total", rejected.get());
+        statistics.put("gosaxon_stylesheet_store_saves_total", saves.get());
+        statistics.put("gosaxon_stylesheet_store_save_failures_total", saveFailures.get());
+    }
+
+    private int reject(String message) {
+        rejected.incrementAndGet();
+        System.err.println(message);
+        return 0;
+    }
+
+    private static byte[] serialize(Object object, Configuration configuration) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes) {
+            {
+                enableReplaceObject(!(object instanceof NamePool));
+            }
+
+            @Override
+            protected Object replaceObject(Object obj) {
+                if (obj == configuration) {
+                    return Shared.CONFIGURATION;
+                }
+                if (obj == configuration.getNamePool()) {
+                    return Shared.NAME_POOL;
+                }
+                return obj;
+            }
+        }) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] serialized, Configuration configuration) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized)) {
+            {
+                enableResolveObject(true);
+            }
+
+            @Override
+            protected Object resolveObject(Object obj) {
+                if (obj instanceof String) {
+                    // Saxon compares names and URIs by identity, relying on them being interned.
+                    return ((String) obj).intern();
+                }
+                if (obj == Shared.CONFIGURATION) {
+                    return configuration;
+                }
+                if (obj == Shared.NAME_POOL) {
+                    return configuration.getNamePool();
+                }
+                return obj;
+            }
+        }) {
+            return in.readObject();
+        }
+    }
+
+    private static byte[] readBlock(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid block length: " + length);
+        }
+        byte[] block = new byte[length];
+        in.readFully(block);
+        return block;
+    }
+
+    private static void writeBlock(DataOutputStream out, byte[] block) throws IOException {
+        out.writeInt(block.length);
+        out.write(block);
+    }
+
+    private static byte[] checksum(byte[] content, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content, 0, length);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java runtime is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        private volatile byte[] serialized;
+        private volatile Templates templates;
+
+        private Entry(byte[] serialized, Templates templates) {
+            this.serialized = serialized;
+            this.templates = templates;
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of compiled stylesheets, keyed by the SHA-256 digest of the stylesheet bytes.
+ *
+ * The cache is bounded by the number of entries as well as by an estimate of the memory used by the
+ * compiled stylesheets (which can't be measured directly, so it's derived from the size of the source).
+ * If several threads ask for the same missing stylesheet at the same time, it is only compiled once.
+ */
+public class TemplatesCache {
+
+    /**
+     * A compiled stylesheet is usually a multiple of the size of its source.
+     */
+    static final int ESTIMATED_EXPANSION_FACTOR = 10;
+
+    public interface Compiler {
+        Templates compile(byte[] stylesheet) throws TransformerException;
+    }
+
+    private final int maxEntries;
+    private final long maxEstimatedBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long estimatedBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TemplatesCache(int maxEntries, long maxEstimatedBytes) {
+        this.maxEntries = maxEntries;
+        this.maxEstimatedBytes = maxEstimatedBytes;
+    }
+
+    public boolean isEnabled() {
+        return (maxEntries > 0) && (maxEstimatedBytes > 0);
+    }
+
+    /**
+     * Returns the compiled version of the stylesheet, using the compiler, if it's not in the cache yet.
+     */
+    public Templates get(byte[] stylesheet, Compiler compiler) throws TransformerException {
+        if (!isEnabled()) {
+            misses.incrementAndGet();
+            return compiler.compile(stylesheet);
+        }
+
+        String key = digest(stylesheet);
+        Entry entry;
+        boolean compile = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry((long) stylesheet.length * ESTIMATED_EXPANSION_FACTOR);
+                entries.put(key, entry);
+                estimatedBytes += entry.estimatedBytes;
+                compile = true;
+                evict(key);
+            }
+        }
+
+        if (!compile) {
+            hits.incrementAndGet();
+            return entry.await();
+        }
+
+        misses.incrementAndGet();
+        try {
+            Templates templates = compiler.compile(stylesheet);
+            entry.templates.complete(templates);
+            return templates;
+        } catch (TransformerException | RuntimeException e) {
+            // Don't keep failures in the cache, the next request should try again.
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                    estimatedBytes -= entry.estimatedBytes;
+                }
+            }
+            entry.templates.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the least recently used entries till the cache is in its bounds again.
+     * The entry that has just been added is never evicted, even if it alone exceeds the memory limit.
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (((entries.size() > maxEntries) || (estimatedBytes > maxEstimatedBytes)) && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            estimatedBytes -= eldest.getValue().estimatedBytes;
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes all entries, e.g. because the stylesheets were compiled with a configuration that was replaced.
+     * Compilations in progress still complete, but their results aren't cached.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        estimatedBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public void collectStatistics(Map<String, Number> statistics) {
+        statistics.put("gosaxon_templates_cache_hits_total", getHits());
+        statistics.put("gosaxon_templates_cache_misses_total", getMisses());
+        statistics.put("gosaxon_templates_cache_evictions_total", getEvictions());
+        statistics.put("gosaxon_templates_cache_entries", size());
+        statistics.put("gosaxon_templates_cache_estimated_bytes", getEstimatedBytes());
+    }
+
+    static String digest(byte[] data) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java runtime is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        private final long estimatedBytes;
+        private final CompletableFuture<Templates> templates = new CompletableFuture<>();
+
+        private Entry(long estimatedBytes) {
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        private Templates await() throws TransformerException {
+            try {
+                return templates.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransformerException("Interrupted while waiting for stylesheet compilation");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof TransformerException) {
+                    throw (TransformerException) e.getCause();
+                }
+                throw new TransformerException(e.getCause());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Timings and sizes of a single transformation.
+ *
+ * Parsing and transforming are separate phases, as the complete tree is built before the stylesheet is
+ * applied anyway. Serializing the result happens while transforming, so it is part of {@link Phase#TRANSFORM}.
+ */
+public class TransformMetrics {
+
+    public enum Phase {
+        /**
+         * Detecting and skipping a byte order mark.
+         */
+        BOM,
+        /**
+         * Looking up the stylesheet in the {@link TemplatesCache} and compiling it, if it wasn't cached.
+         */
+        COMPILE,
+        /**
+         * Parsing the document into a tree.
+         */
+        PARSE,
+        /**
+         * Applying the stylesheet and serializing the result.
+         */
+        TRANSFORM;
+
+        private final String label = name().toLowerCase(Locale.ROOT);
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+    private long inputBytes;
+    private long outputBytes;
+
+    /**
+     * Adds the time since the start to the phase.
+     *
+     * @param startNanos value of {@link System#nanoTime()} when the phase started.
+     */
+    void record(Phase phase, long startNanos) {
+        nanos[phase.ordinal()] += System.nanoTime() - startNanos;
+    }
+
+    void setInputBytes(long inputBytes) {
+        this.inputBytes = inputBytes;
+    }
+
+    void setOutputBytes(long outputBytes) {
+        this.outputBytes = outputBytes;
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for (long phaseNanos : nanos) {
+            total += phaseNanos;
+        }
+        return total;
+    }
+
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * @return the metrics as sent by the {@link GoSaxonServer}: the nanoseconds of each phase (in the order of
+     * {@link Phase}) followed by the input and output bytes, each as big-endian 64 bit value.
+     */
+    public byte[] toBlock() {
+        ByteBuffer block = ByteBuffer.allocate((nanos.length + 2) * 8);
+        for (long phaseNanos : nanos) {
+            block.putLong(phaseNanos);
+        }
+        block.putLong(inputBytes);
+        block.putLong(outputBytes);
+        return block.array();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            sb.append(phase.getLabel()).append('=').append(getNanos(phase) / 1000).append("us ");
+        }
+        return sb.append("in=").append(inputBytes).append("B out=").append(outputBytes).append('B').toString();
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Controller;
+import net.sf.saxon.om.Name10Checker;
+import net.sf.saxon.trans.XPathException;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Stylesheet parameters and output properties of a single request.
+ *
+ * They are applied to every {@link Controller} created for the request, so the compiled stylesheet itself doesn't
+ * depend on them and stays cached no matter how many different variants of the parameters are used.
+ * Just like the {@link RequestLimits}, they are bound to the thread executing the request (see {@link #bind(Callable)}).
+ *
+ * The parameters block of a request (see {@link GoSaxonProtocol#OP_WITH_PARAMETERS}) consists of a big-endian 32 bit
+ * count followed by that many entries of the form [type byte] [name block] [value block]. The names of stylesheet
+ * parameters are in Clark notation ("{namespace-uri}local-name" or just "local-name"), the values are UTF-8 encoded
+ * in their lexical form, documents are passed as XML.
+ */
+public final class TransformParameters {
+
+    public static final byte TYPE_OUTPUT_PROPERTY = 0x00;
+    public static final byte TYPE_STRING = 0x01;
+    public static final byte TYPE_INTEGER = 0x02;
+    public static final byte TYPE_DECIMAL = 0x03;
+    public static final byte TYPE_DOUBLE = 0x04;
+    public static final byte TYPE_BOOLEAN = 0x05;
+    public static final byte TYPE_DOCUMENT = 0x06;
+
+    /**
+     * No parameters and the output properties of the stylesheet.
+     */
+    public static final TransformParameters NONE = new TransformParameters(Collections.emptyList());
+
+    private static final ThreadLocal<TransformParameters> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    private final List<Entry> entries;
+    /**
+     * The values converted for Saxon, created by the first controller, so records and batches only convert
+     * (and parse documents) once.
+     */
+    private Object[] values;
+
+    private TransformParameters(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Decodes the parameters block of a request. Only the structure is checked here, invalid values make the
+     * request fail once it's executed.
+     */
+    public static TransformParameters fromBlock(byte[] block) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+        try {
+            int count = in.readInt();
+            if ((count < 0) || (count > block.length)) {
+                throw new IllegalArgumentException("Invalid number of parameters: " + count);
+            }
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte type = in.readByte();
+                if ((type < TYPE_OUTPUT_PROPERTY) || (type > TYPE_DOCUMENT)) {
+                    throw new IllegalArgumentException("Unknown parameter type: " + type);
+                }
+                String name = new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8);
+                entries.add(new Entry(type, name, GoSaxonProtocol.readBlock(in)));
+            }
+            if (in.available() != 0) {
+                throw new IllegalArgumentException("Unexpected data after " + count + " parameters");
+            }
+            return entries.isEmpty() ? NONE : new TransformParameters(entries);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated parameters block");
+        }
+    }
+
+    /**
+     * @return the parameters of the request executed by the current thread.
+     */
+    public static TransformParameters current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the work, executing with these parameters bound to the executing thread.
+     */
+    public <T> Callable<T> bind(Callable<T> work) {
+        if (this == NONE) {
+            return work;
+        }
+        return () -> {
+            TransformParameters previous = CURRENT.get();
+            CURRENT.set(this);
+            try {
+                return work.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * Work can be bound on a thread that already executes a request (e.g. the chunks of records), which keeps its own.
+     */
+    private static void restore(TransformParameters previous) {
+        if (previous == NONE) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sets the parameters and output properties on the controller.
+     *
+     * @throws TransformerException if a value doesn't match its type or an output property is invalid.
+     */
+    void apply(Controller controller) throws TransformerException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Object[] values = getValues(controller.getConfiguration());
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.type != TYPE_OUTPUT_PROPERTY) {
+                controller.setParameter(entry.name, values[i]);
+                continue;
+            }
+            try {
+                controller.setOutputProperty(entry.name, (String) values[i]);
+            } catch (IllegalArgumentException e) {
+                throw new TransformerException("Invalid output property " + entry.name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized Object[] getValues(Configuration configuration) throws TransformerException {
+        if (values == null) {
+            Object[] converted = new Object[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                converted[i] = entries.get(i).convert(configuration);
+            }
+            values = converted;
+        }
+        return values;
+    }
+
+    private static final class Entry {
+        private final byte type;
+        private final String name;
+        private final byte[] value;
+
+        private Entry(byte type, String name, byte[] value) {
+            this.type = type;
+            this.name = name;
+            this.value = value;
+        }
+
+        private Object convert(Configuration configuration) throws TransformerException {
+            if ((type != TYPE_OUTPUT_PROPERTY) && !isClarkName(name)) {
+                throw new TransformerException("Invalid parameter name: " + name);
+            }
+            if (type == TYPE_DOCUMENT) {
+                try {
+                    return configuration.buildDocument(new StreamSource(new ByteArrayInputStream(value)));
+                } catch (XPathException e) {
+                    throw new TransformerException("Invalid document for parameter " + name + ": " + e.getMessage(), e);
+                }
+            }
+            String text = new String(value, StandardCharsets.UTF_8);
+            String trimmed = text.trim();
+            try {
+                switch (type) {
+                    case TYPE_INTEGER:
+                        return new BigInteger(trimmed.startsWith("+") ? trimmed.substring(1) : trimmed);
+                    case TYPE_DECIMAL:
+                        if ((trimmed.indexOf('e') != -1) || (trimmed.indexOf('E') != -1)) {
+                            throw new NumberFormatException();
+                        }
+                        return new BigDecimal(trimmed);
+                    case TYPE_DOUBLE:
+                        return parseDouble(trimmed);
+                    case TYPE_BOOLEAN:
+                        return parseBoolean(trimmed);
+                    default:
+                        // Strings and output properties are used as they are.
+                        return text;
+                }
+            } catch (NumberFormatException e) {
+                throw new TransformerException("Invalid " + typeName(type) + " value for parameter " + name + ": " + text);
+            }
+        }
+    }
+
+    private static boolean isClarkName(String name) {
+        if (!name.startsWith("{")) {
+            return Name10Checker.getInstance().isValidNCName(name);
+        }
+        int end = name.indexOf('}');
+        return (end != -1) && Name10Checker.getInstance().isValidNCName(name.substring(end + 1));
+    }
+
+    /**
+     * Parses a double in the lexical form of xs:double, which spells infinity "INF".
+     */
+    private static Double parseDouble(String text) {
+        switch (text) {
+            case "INF":
+            case "+INF":
+                return Double.POSITIVE_INFINITY;
+            case "-INF":
+                return Double.NEGATIVE_INFINITY;
+            case "NaN":
+                return Double.NaN;
+            default:
+                // Java would accept "Infinity", "NaN" with a sign and type suffixes, none of which are valid here.
+                if (text.isEmpty() || !text.matches("[+-]?([0-9]+(\\.[0-9]*)?|\\.[0-9]+)([eE][+-]?[0-9]+)?")) {
+                    throw new NumberFormatException();
+                }
+                return Double.parseDouble(text);
+        }
+    }
+
+    private static Boolean parseBoolean(String text) {
+        switch (text) {
+            case "true":
+            case "1":
+                return Boolean.TRUE;
+            case "false":
+            case "0":
+                return Boolean.FALSE;
+            default:
+                throw new NumberFormatException();
+        }
+    }
+
+    private static String typeName(byte type) {
+        switch (type) {
+            case TYPE_INTEGER:
+                return "xs:integer";
+            case TYPE_DECIMAL:
+                return "xs:decimal";
+            case TYPE_DOUBLE:
+                return "xs:double";
+            default:
+                return "xs:boolean";
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed number of worker threads executing the transformations of the {@link GoSaxonServer}.
+ *
+ * Work that can't be started immediately waits in a bounded queue. If that queue is full,
+ * the work is rejected right away, so the caller can report the server as busy instead of
+ * letting the latency of all requests grow without limit. Callers already streaming a request (the documents of a
+ * batch) can wait for a place instead, see {@link #submitWhenAvailable(Callable)}.
+ *
+ * The capacity (workers plus queue size) is tracked by a semaphore, each task holds a permit till a worker took it
+ * from the queue and finished it.
+ */
+public class WorkerPool {
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore capacity;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public WorkerPool(int workers, int queueSize) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        this.capacity = new Semaphore(workers + Math.max(queueSize, 0));
+        // The queue itself is unbounded, the semaphore limits what is put into it.
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "gosaxon-worker-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Queues the task for execution.
+     *
+     * @throws RejectedExecutionException if the queue is full.
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        if (!capacity.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("All workers are busy");
+        }
+        return start(new FutureTask<>(task));
+    }
+
+    /**
+     * Same as {@link #submit(Callable)}, but waits for a place in the queue instead of rejecting the task.
+     */
+    public <T> Future<T> submitWhenAvailable(Callable<T> task) throws InterruptedException {
+        capacity.acquire();
+        return start(new FutureTask<>(task));
+    }
+
+    /**
+     * Queues part of a request that has already been accepted. Unlike {@link #submit(Callable)}, a rejection
+     * isn't counted, as the caller executes the work itself in that case.
+     *
+     * @throws RejectedExecutionException if the queue is full.
+     */
+    public void execute(Runnable task) {
+        if (!capacity.tryAcquire()) {
+            throw new RejectedExecutionException("All workers are busy");
+        }
+        start(task);
+    }
+
+    /**
+     * Executes the task, which holds a permit. The permit is released once a worker is done with it, a task cancelled
+     * while waiting in the queue keeps its permit till a worker took it from there.
+     */
+    private <T extends Runnable> T start(T task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    capacity.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Only happens after the shutdown.
+            capacity.release();
+            throw e;
+        }
+        return task;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public int getWorkers() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public void collectStatistics(Map<String, Number> statistics) {
+        statistics.put("gosaxon_workers", getWorkers());
+        statistics.put("gosaxon_workers_active", executor.getActiveCount());
+        statistics.put("gosaxon_queue_depth", getQueueDepth());
+        statistics.put("gosaxon_tasks_completed_total", executor.getCompletedTaskCount());
+        statistics.put("gosaxon_tasks_rejected_total", getRejected());
+    }
+
+}
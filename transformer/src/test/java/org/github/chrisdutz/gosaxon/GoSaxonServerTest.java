@@ -0,0 +1,508 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class GoSaxonServerTest {
+
+    private GoSaxonServer server;
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new GoSaxonServer(GoSaxonOptions.parse(new String[]{"false", "--server"}));
+        Thread serverThread = new Thread(server::run);
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        socket = new Socket("127.0.0.1", server.getPort());
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        socket.close();
+        server.stop();
+    }
+
+    @Test
+    public void testMultipleTransformationsOnOneConnection() throws IOException {
+        byte[] xml = resource("/test.xml");
+        byte[] xslt = resource("/test.xslt");
+        for (int i = 0; i < 3; i++) {
+            out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+            GoSaxonProtocol.writeBlock(out, xslt);
+            GoSaxonProtocol.writeBlock(out, xml);
+            out.flush();
+
+            Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+            String result = new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8);
+            Assertions.assertTrue(result.contains("apple-like-fruit"));
+        }
+    }
+
+    @Test
+    public void testFailureKeepsConnectionUsable() throws IOException {
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, "<not-a-stylesheet".getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, resource("/test.xml"));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_FAILURE, in.readByte());
+        GoSaxonProtocol.readBlock(in);
+
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xslt"));
+        GoSaxonProtocol.writeBlock(out, resource("/test.xml"));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+    }
+
+    @Test
+    public void testLimitsAbortRequestAndKeepConnectionUsable() throws IOException {
+        byte[] endless = ("<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+            "<xsl:template match=\"/\"><items><xsl:for-each select=\"1 to 100000000\">" +
+            "<item><xsl:value-of select=\".\"/></item></xsl:for-each></items></xsl:template>" +
+            "</xsl:stylesheet>").getBytes(StandardCharsets.UTF_8);
+        writeLimits(200, 0, 0);
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, endless);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xml"));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_TIMEOUT, in.readByte());
+        Assertions.assertTrue(new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8).contains("timeout"));
+
+        // The document is rejected before it is read into memory, but the connection stays usable.
+        writeLimits(0, 16, 0);
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xslt"));
+        GoSaxonProtocol.writeBlock(out, resource("/test.xml"));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_FAILURE, in.readByte());
+        Assertions.assertTrue(new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8).contains("Input exceeds"));
+
+        writeLimits(0, 0, 16);
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xslt"));
+        GoSaxonProtocol.writeBlock(out, resource("/test.xml"));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_FAILURE, in.readByte());
+        Assertions.assertTrue(new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8).contains("limit"));
+
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xslt"));
+        GoSaxonProtocol.writeBlock(out, resource("/test.xml"));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        Assertions.assertTrue(new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8).contains("apple-like-fruit"));
+    }
+
+    @Test
+    public void testParametersShareOneStylesheet() throws IOException {
+        byte[] greeting = ("<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" " +
+            "xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns:p=\"urn:params\">" +
+            "<xsl:param name=\"name\" as=\"xs:string\" select=\"'nobody'\"/>" +
+            "<xsl:param name=\"p:count\" as=\"xs:integer\" select=\"1\"/>" +
+            "<xsl:param name=\"loud\" as=\"xs:boolean\" select=\"false()\"/>" +
+            "<xsl:param name=\"names\" as=\"document-node()?\" select=\"()\"/>" +
+            "<xsl:template match=\"/\"><greeting count=\"{$p:count * 2}\">" +
+            "<xsl:value-of select=\"if ($loud) then upper-case($name) else $name, $names//@id\"/>" +
+            "</greeting></xsl:template></xsl:stylesheet>").getBytes(StandardCharsets.UTF_8);
+
+        writeParameters(new Object[][]{
+            {TransformParameters.TYPE_STRING, "name", "world"},
+            {TransformParameters.TYPE_INTEGER, "{urn:params}count", "21"},
+            {TransformParameters.TYPE_BOOLEAN, "loud", "true"},
+            {TransformParameters.TYPE_DOCUMENT, "names", "<names><n id=\"x\"/></names>"},
+            {TransformParameters.TYPE_OUTPUT_PROPERTY, "omit-xml-declaration", "yes"}});
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, greeting);
+        GoSaxonProtocol.writeBlock(out, "<empty/>".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        Assertions.assertEquals("<greeting xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns:p=\"urn:params\" count=\"42\">WORLD x</greeting>",
+            new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8).trim());
+
+        // Invalid values fail the request, but not the connection. The prefixes can be combined.
+        writeLimits(10000, 0, 0);
+        writeParameters(new Object[][]{{TransformParameters.TYPE_INTEGER, "{urn:params}count", "many"}});
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, greeting);
+        GoSaxonProtocol.writeBlock(out, "<empty/>".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_FAILURE, in.readByte());
+        Assertions.assertTrue(new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8).contains("xs:integer"));
+
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, greeting);
+        GoSaxonProtocol.writeBlock(out, "<empty/>".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        Assertions.assertTrue(new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8).contains("count=\"2\">nobody</greeting>"));
+
+        // All variants used the same compiled stylesheet.
+        Assertions.assertTrue(server.getStatistics().contains("gosaxon_templates_cache_misses_total 1\n"));
+    }
+
+    @Test
+    public void testStoredDocumentIsTransformedAndResolved() throws IOException {
+        out.writeByte(GoSaxonProtocol.OP_PUT_DOCUMENT);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xml"));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        long handle = GoSaxonProtocol.readHandle(in);
+
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM_DOCUMENT);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xslt"));
+        GoSaxonProtocol.writeBlock(out, GoSaxonProtocol.handleBlock(handle));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        Assertions.assertTrue(new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8).contains("apple-like-fruit"));
+
+        // The stored document can also be accessed from other transformations using document().
+        String lookup = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+            "<xsl:template match=\"/\"><count><xsl:value-of select=\"count(document('" + DocumentStore.URI_PREFIX + handle +
+            "')/fruits/*)\"/></count></xsl:template></xsl:stylesheet>";
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, lookup.getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, "<empty/>".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        Assertions.assertTrue(new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8).contains("<count>2</count>"));
+
+        out.writeByte(GoSaxonProtocol.OP_RELEASE_DOCUMENT);
+        GoSaxonProtocol.writeBlock(out, GoSaxonProtocol.handleBlock(handle));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        GoSaxonProtocol.readBlock(in);
+
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM_DOCUMENT);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xslt"));
+        GoSaxonProtocol.writeBlock(out, GoSaxonProtocol.handleBlock(handle));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_FAILURE, in.readByte());
+        GoSaxonProtocol.readBlock(in);
+    }
+
+    @Test
+    public void testTransformWithMetrics() throws IOException {
+        byte[] xml = resource("/test.xml");
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM_WITH_METRICS);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xslt"));
+        GoSaxonProtocol.writeBlock(out, xml);
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        byte[] result = GoSaxonProtocol.readBlock(in);
+        DataInputStream metrics = new DataInputStream(new ByteArrayInputStream(GoSaxonProtocol.readBlock(in)));
+        for (TransformMetrics.Phase phase : TransformMetrics.Phase.values()) {
+            Assertions.assertTrue(metrics.readLong() >= 0, phase.getLabel());
+        }
+        Assertions.assertEquals(xml.length, metrics.readLong());
+        Assertions.assertEquals(result.length, metrics.readLong());
+
+        // Failed requests still have a (empty) metrics block.
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM_WITH_METRICS);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xslt"));
+        GoSaxonProtocol.writeBlock(out, "<broken".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_FAILURE, in.readByte());
+        GoSaxonProtocol.readBlock(in);
+        Assertions.assertEquals(0, GoSaxonProtocol.readBlock(in).length);
+
+        out.writeByte(GoSaxonProtocol.OP_STATS);
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        String stats = new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8);
+        Assertions.assertTrue(stats.contains("gosaxon_requests_total{operation=\"transform\",status=\"success\"} 1\n"));
+        Assertions.assertTrue(stats.contains("gosaxon_requests_total{operation=\"transform\",status=\"failure\"} 1\n"));
+        Assertions.assertTrue(stats.contains("gosaxon_phase_duration_seconds_count{phase=\"parse\"} 1\n"));
+        Assertions.assertTrue(stats.contains("gosaxon_input_bytes_total " + xml.length + "\n"));
+        Assertions.assertTrue(stats.contains("# TYPE gosaxon_templates_cache_hits_total counter\n"));
+        // The Go pool replaces processes using too much memory based on this value.
+        Assertions.assertTrue(stats.contains("\ngosaxon_memory_committed_bytes "));
+    }
+
+    @Test
+    public void testTransformRecordsKeepsOrder() throws IOException {
+        StringBuilder xml = new StringBuilder("<r:root xmlns:r=\"urn:records\"><header/>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<r:record id=\"").append(i).append("\"><value>").append(i).append("</value></r:record>");
+        }
+        xml.append("</r:root>");
+        String xslt = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+            "<xsl:template match=\"/*\"><xsl:if test=\"value = 'fail'\"><xsl:message terminate=\"yes\">bad record</xsl:message></xsl:if>" +
+            "<out id=\"{@id}\" ns=\"{namespace-uri()}\"/></xsl:template></xsl:stylesheet>";
+
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM_RECORDS);
+        GoSaxonProtocol.writeBlock(out, xslt.getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, "{urn:records}record".getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, "results".getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, xml.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        StringBuilder expected = new StringBuilder("<results>");
+        for (int i = 0; i < 100; i++) {
+            expected.append("<out id=\"").append(i).append("\" ns=\"urn:records\"/>");
+        }
+        expected.append("</results>");
+        Assertions.assertEquals(expected.toString(), new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8));
+
+        // A single failing record fails the whole request.
+        String failing = xml.toString().replace("<value>50</value>", "<value>fail</value>");
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM_RECORDS);
+        GoSaxonProtocol.writeBlock(out, xslt.getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, "record".getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, new byte[0]);
+        GoSaxonProtocol.writeBlock(out, failing.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_FAILURE, in.readByte());
+        Assertions.assertTrue(new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8).startsWith("Error transforming record 50:"));
+    }
+
+    @Test
+    public void testRecordsUseParametersOnSingleWorker() throws IOException {
+        // The only worker executes the request itself, so it has to transform the chunks of records on its own.
+        GoSaxonServer singleWorkerServer = new GoSaxonServer(
+            GoSaxonOptions.parse(new String[]{"false", "--server", "--workers=1", "--queue-size=1"}));
+        Thread serverThread = new Thread(singleWorkerServer::run);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        try (Socket singleWorkerSocket = new Socket("127.0.0.1", singleWorkerServer.getPort())) {
+            in = new DataInputStream(new BufferedInputStream(singleWorkerSocket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(singleWorkerSocket.getOutputStream()));
+            StringBuilder xml = new StringBuilder("<root>");
+            for (int i = 0; i < 5000; i++) {
+                xml.append("<record><value>").append(i).append("</value><padding>0123456789</padding></record>");
+            }
+            xml.append("</root>");
+            String xslt = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                "<xsl:param name=\"prefix\" select=\"'none'\"/>" +
+                "<xsl:template match=\"/*\"><out><xsl:value-of select=\"$prefix, value\"/></out></xsl:template>" +
+                "</xsl:stylesheet>";
+
+            writeParameters(new Object[][]{{TransformParameters.TYPE_STRING, "prefix", "p"}});
+            out.writeByte(GoSaxonProtocol.OP_TRANSFORM_RECORDS);
+            GoSaxonProtocol.writeBlock(out, xslt.getBytes(StandardCharsets.UTF_8));
+            GoSaxonProtocol.writeBlock(out, "record".getBytes(StandardCharsets.UTF_8));
+            GoSaxonProtocol.writeBlock(out, new byte[0]);
+            GoSaxonProtocol.writeBlock(out, xml.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+            String result = new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8);
+            Assertions.assertTrue(result.startsWith("<out>p 0</out><out>p 1</out>"));
+            Assertions.assertTrue(result.endsWith("<out>p 4999</out>"));
+        } finally {
+            singleWorkerServer.stop();
+        }
+    }
+
+    @Test
+    public void testBatchIsAnsweredInOrder() throws IOException {
+        String xslt = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+            "<xsl:output omit-xml-declaration=\"yes\"/>" +
+            "<xsl:template match=\"/\"><xsl:value-of select=\"/item\"/></xsl:template></xsl:stylesheet>";
+        out.writeByte(GoSaxonProtocol.OP_BATCH);
+        GoSaxonProtocol.writeBlock(out, xslt.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < 20; i++) {
+            String xml = (i == 7) ? "<broken" : "<item>" + i + "</item>";
+            GoSaxonProtocol.writeBlock(out, xml.getBytes(StandardCharsets.UTF_8));
+        }
+        out.writeInt(-1);
+        out.flush();
+
+        for (int i = 0; i < 20; i++) {
+            byte status = in.readByte();
+            Assertions.assertEquals(i, in.readInt());
+            String result = new String(GoSaxonProtocol.readBlock(in), StandardCharsets.UTF_8);
+            if (i == 7) {
+                Assertions.assertEquals(GoSaxonProtocol.STATUS_FAILURE, status);
+            } else {
+                Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, status);
+                Assertions.assertEquals(Integer.toString(i), result);
+            }
+        }
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        Assertions.assertEquals(-1, in.readInt());
+        GoSaxonProtocol.readBlock(in);
+
+        // A stylesheet that doesn't compile fails the batch as a whole, but the connection stays usable.
+        out.writeByte(GoSaxonProtocol.OP_BATCH);
+        GoSaxonProtocol.writeBlock(out, "<not-a-stylesheet".getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, resource("/test.xml"));
+        out.writeInt(-1);
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_FAILURE, in.readByte());
+        Assertions.assertEquals(-1, in.readInt());
+        GoSaxonProtocol.readBlock(in);
+
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xslt"));
+        GoSaxonProtocol.writeBlock(out, resource("/test.xml"));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+    }
+
+    @Test
+    public void testStreamIsTransformedInChunks() throws IOException {
+        String xslt = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+            "<xsl:output omit-xml-declaration=\"yes\"/>" +
+            "<xsl:template match=\"/\"><items><xsl:for-each select=\"1 to /count\">" +
+            "<item><xsl:value-of select=\".\"/></item></xsl:for-each></items></xsl:template></xsl:stylesheet>";
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM_STREAM);
+        GoSaxonProtocol.writeBlock(out, xslt.getBytes(StandardCharsets.UTF_8));
+        for (String chunk : new String[]{"<cou", "nt>20", "000</c", "ount>"}) {
+            GoSaxonProtocol.writeBlock(out, chunk.getBytes(StandardCharsets.UTF_8));
+        }
+        out.writeInt(-1);
+        out.flush();
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int chunks = 0;
+        byte[] chunk;
+        while ((chunk = GoSaxonProtocol.readOptionalBlock(in)) != null) {
+            Assertions.assertTrue(chunk.length <= ChunkedOutputStream.CHUNK_SIZE);
+            result.write(chunk);
+            chunks++;
+        }
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        GoSaxonProtocol.readBlock(in);
+        Assertions.assertTrue(chunks > 1);
+        String output = new String(result.toByteArray(), StandardCharsets.UTF_8);
+        Assertions.assertTrue(output.startsWith("<items><item>1</item>"));
+        Assertions.assertTrue(output.endsWith("<item>20000</item></items>"));
+
+        // A document failing to parse halfway is skipped, so the connection stays usable.
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM_STREAM);
+        GoSaxonProtocol.writeBlock(out, xslt.getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, "<count>1</broken>".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < 100; i++) {
+            GoSaxonProtocol.writeBlock(out, "<more/>".getBytes(StandardCharsets.UTF_8));
+        }
+        out.writeInt(-1);
+        out.flush();
+        Assertions.assertNull(GoSaxonProtocol.readOptionalBlock(in));
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_FAILURE, in.readByte());
+        GoSaxonProtocol.readBlock(in);
+
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+        GoSaxonProtocol.writeBlock(out, resource("/test.xslt"));
+        GoSaxonProtocol.writeBlock(out, resource("/test.xml"));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+    }
+
+    @Test
+    public void testFileIsTransformedToFile(@TempDir Path tempDir) throws IOException {
+        Path xml = Files.write(tempDir.resolve("test.xml"), resource("/test.xml"));
+        Path xslt = Files.write(tempDir.resolve("test.xslt"), resource("/test.xslt"));
+        Path output = tempDir.resolve("result.xml");
+
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM_FILE);
+        GoSaxonProtocol.writeBlock(out, xslt.toString().getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, xml.toString().getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, output.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, in.readByte());
+        long size = new DataInputStream(new ByteArrayInputStream(GoSaxonProtocol.readBlock(in))).readLong();
+        Assertions.assertEquals(Files.size(output), size);
+        Assertions.assertTrue(new String(Files.readAllBytes(output), StandardCharsets.UTF_8).contains("apple-like-fruit"));
+
+        // A failed transformation doesn't leave a partial output file behind.
+        Path broken = Files.write(tempDir.resolve("broken.xml"), "<broken".getBytes(StandardCharsets.UTF_8));
+        Path brokenOutput = tempDir.resolve("broken-result.xml");
+        out.writeByte(GoSaxonProtocol.OP_TRANSFORM_FILE);
+        GoSaxonProtocol.writeBlock(out, xslt.toString().getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, broken.toString().getBytes(StandardCharsets.UTF_8));
+        GoSaxonProtocol.writeBlock(out, brokenOutput.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        Assertions.assertEquals(GoSaxonProtocol.STATUS_FAILURE, in.readByte());
+        GoSaxonProtocol.readBlock(in);
+        Assertions.assertFalse(Files.exists(brokenOutput));
+    }
+
+    @Test
+    public void testUnixDomainSocket(@TempDir Path tempDir) throws IOException {
+        Path socketPath = tempDir.resolve("gosaxon.sock");
+        GoSaxonServer unixServer = new GoSaxonServer(
+            GoSaxonOptions.parse(new String[]{"false", "--server", "--socket=" + socketPath}));
+        Thread serverThread = new Thread(unixServer::run);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+            Assertions.assertEquals(0, unixServer.getPort());
+            DataInputStream unixIn = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream unixOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            unixOut.writeByte(GoSaxonProtocol.OP_TRANSFORM);
+            GoSaxonProtocol.writeBlock(unixOut, resource("/test.xslt"));
+            GoSaxonProtocol.writeBlock(unixOut, resource("/test.xml"));
+            unixOut.flush();
+            Assertions.assertEquals(GoSaxonProtocol.STATUS_SUCCESS, unixIn.readByte());
+            Assertions.assertTrue(new String(GoSaxonProtocol.readBlock(unixIn), StandardCharsets.UTF_8).contains("apple-like-fruit"));
+        } finally {
+            unixServer.stop();
+        }
+        Assertions.assertFalse(Files.exists(socketPath));
+    }
+
+    private void writeLimits(long timeoutMillis, long maxInputBytes, long maxOutputBytes) throws IOException {
+        out.writeByte(GoSaxonProtocol.OP_WITH_LIMITS);
+        out.writeInt(24);
+        out.writeLong(timeoutMillis);
+        out.writeLong(maxInputBytes);
+        out.writeLong(maxOutputBytes);
+    }
+
+    private void writeParameters(Object[][] entries) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        DataOutputStream blockOut = new DataOutputStream(block);
+        blockOut.writeInt(entries.length);
+        for (Object[] entry : entries) {
+            blockOut.writeByte((Byte) entry[0]);
+            GoSaxonProtocol.writeBlock(blockOut, ((String) entry[1]).getBytes(StandardCharsets.UTF_8));
+            GoSaxonProtocol.writeBlock(blockOut, ((String) entry[2]).getBytes(StandardCharsets.UTF_8));
+        }
+        out.writeByte(GoSaxonProtocol.OP_WITH_PARAMETERS);
+        GoSaxonProtocol.writeBlock(out, block.toByteArray());
+    }
+
+    private byte[] resource(String name) throws IOException {
+        try (InputStream inputStream = getClass().getResourceAsStream(name)) {
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+}
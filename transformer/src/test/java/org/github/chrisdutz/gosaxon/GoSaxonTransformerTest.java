@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+
+public class GoSaxonTransformerTest {
+
+    @Test
+    public void testUtf8BomIsRemoved() throws IOException {
+        PushbackInputStream inputStream = stream(0xEF, 0xBB, 0xBF, '<', 'a', '/', '>');
+        Assertions.assertEquals("UTF-8", GoSaxonTransformer.getEncodingFromBomAndRemoveBom(inputStream));
+        Assertions.assertEquals("<a/>", new String(IOUtils.toByteArray(inputStream), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUtf32LeIsNotMistakenForUtf16Le() throws IOException {
+        PushbackInputStream inputStream = stream(0xFF, 0xFE, 0x00, 0x00, '<', 0x00, 0x00, 0x00);
+        Assertions.assertEquals("UTF-32LE", GoSaxonTransformer.getEncodingFromBomAndRemoveBom(inputStream));
+        Assertions.assertEquals(4, IOUtils.toByteArray(inputStream).length);
+    }
+
+    @Test
+    public void testNoBomKeepsContent() throws IOException {
+        PushbackInputStream inputStream = stream('<', 'a', '/', '>', ' ');
+        Assertions.assertNull(GoSaxonTransformer.getEncodingFromBomAndRemoveBom(inputStream));
+        Assertions.assertEquals("<a/> ", new String(IOUtils.toByteArray(inputStream), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testInputShorterThanBomDoesNotBlock() throws IOException {
+        PushbackInputStream inputStream = stream('<', 'a');
+        Assertions.assertNull(GoSaxonTransformer.getEncodingFromBomAndRemoveBom(inputStream));
+        Assertions.assertEquals("<a", new String(IOUtils.toByteArray(inputStream), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUtf16DocumentWithBomIsTransformed() throws Exception {
+        String xml = new String(resource("/test.xml"), StandardCharsets.UTF_8).trim();
+        ByteArrayOutputStream utf16 = new ByteArrayOutputStream();
+        utf16.write(0xFE);
+        utf16.write(0xFF);
+        utf16.write(xml.getBytes(StandardCharsets.UTF_16BE));
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        new GoSaxonEngine(false).transform(utf16.toByteArray(), resource("/test.xslt"), result);
+        Assertions.assertTrue(result.toString("UTF-8").contains("apple-like-fruit"));
+    }
+
+    private static PushbackInputStream stream(int... bytes) {
+        byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            data[i] = (byte) bytes[i];
+        }
+        return new PushbackInputStream(new ByteArrayInputStream(data), GoSaxonTransformer.MAX_BOM_LENGTH);
+    }
+
+    private byte[] resource(String name) throws IOException {
+        try (InputStream inputStream = getClass().getResourceAsStream(name)) {
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+}
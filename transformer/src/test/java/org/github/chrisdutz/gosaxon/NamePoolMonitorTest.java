@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.PreparedStylesheet;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+public class NamePoolMonitorTest {
+
+    private static final byte[] STYLESHEET = ("<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+        "<xsl:template match=\"/\"><count><xsl:value-of select=\"count(//*)\"/></count></xsl:template>" +
+        "</xsl:stylesheet>").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testConfigurationIsRenewedWhenNamePoolIsFull(@TempDir Path tempDir) throws Exception {
+        Configuration initial = PreinitializedSaxon.getConfiguration();
+        int limit = NamePoolMonitor.countNames(initial.getNamePool()) + 100;
+        StylesheetStore stylesheetStore = new StylesheetStore(tempDir, 16, initial, false);
+        DocumentStore documentStore = new DocumentStore(1024 * 1024);
+        GoSaxonEngine engine = new GoSaxonEngine(false, new TemplatesCache(16, 1024 * 1024), documentStore,
+            stylesheetStore, null, new NamePoolMonitor(limit, 1));
+        long handle = documentStore.put(engine.buildDocument(
+            new ByteArrayInputStream("<stored/>".getBytes(StandardCharsets.UTF_8))), 9);
+
+        // Every document uses 50 names never seen before, the second one exceeds the limit.
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals("<count>51</count>", transform(engine, generatedNames(i)));
+            Assertions.assertEquals(i == 0, PreinitializedSaxon.getConfiguration() == initial);
+        }
+        Assertions.assertEquals(1, engine.getNamePoolMonitor().getRenewals());
+        Configuration renewed = PreinitializedSaxon.getConfiguration();
+        Assertions.assertTrue(NamePoolMonitor.countNames(renewed.getNamePool()) < limit);
+
+        // The documents and stylesheets of the old configuration are gone, the new ones use the renewed configuration.
+        Assertions.assertNull(documentStore.get(handle));
+        Assertions.assertEquals(1, engine.getTemplatesCache().size());
+        Assertions.assertEquals(1, stylesheetStore.size());
+        Assertions.assertSame(renewed, ((PreparedStylesheet) engine.getTemplates(STYLESHEET)).getConfiguration());
+        stylesheetStore.close();
+    }
+
+    private static byte[] generatedNames(int document) {
+        StringBuilder xml = new StringBuilder("<root>");
+        for (int i = 0; i < 50; i++) {
+            xml.append("<name-").append(document).append('-').append(i).append("/>");
+        }
+        return xml.append("</root>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String transform(GoSaxonEngine engine, byte[] xml) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        engine.transform(xml, STYLESHEET, output);
+        String result = output.toString(StandardCharsets.UTF_8);
+        return result.substring(result.indexOf("?>") + 2).trim();
+    }
+
+}
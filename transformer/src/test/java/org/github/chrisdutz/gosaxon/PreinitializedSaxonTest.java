@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.xml.transform.Templates;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+public class PreinitializedSaxonTest {
+
+    private static final byte[] STYLESHEET_A = stylesheet("a");
+    private static final byte[] STYLESHEET_B = stylesheet("b");
+
+    @Test
+    public void testPrecompileFilesAndDirectories(@TempDir Path tempDir) throws Exception {
+        Path directory = Files.createDirectory(tempDir.resolve("stylesheets"));
+        Files.write(directory.resolve("a.xslt"), STYLESHEET_A);
+        Files.write(directory.resolve("readme.txt"), "not a stylesheet".getBytes(StandardCharsets.UTF_8));
+        Path file = Files.write(tempDir.resolve("b.xsl"), STYLESHEET_B);
+
+        Map<String, Templates> precompiled = PreinitializedSaxon.precompile(
+            directory + ", " + file + ",", PreinitializedSaxon.TRANSFORMER_FACTORY);
+        Assertions.assertEquals(2, precompiled.size());
+
+        // The precompiled stylesheets are found by their content and work with the shared configuration.
+        Templates templates = precompiled.get(TemplatesCache.digest(STYLESHEET_B.clone()));
+        Assertions.assertNotNull(templates);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new GoSaxonEngine(false).transform(
+            new ByteArrayInputStream("<doc/>".getBytes(StandardCharsets.UTF_8)), templates, output);
+        Assertions.assertTrue(output.toString(StandardCharsets.UTF_8).contains("<b/>"));
+    }
+
+    @Test
+    public void testBrokenStylesheetFailsInitialization(@TempDir Path tempDir) throws Exception {
+        Path broken = Files.write(tempDir.resolve("broken.xslt"), "<xsl:stylesheet".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertThrows(IllegalStateException.class,
+            () -> PreinitializedSaxon.precompile(broken.toString(), PreinitializedSaxon.TRANSFORMER_FACTORY));
+        Assertions.assertTrue(PreinitializedSaxon.precompile("", PreinitializedSaxon.TRANSFORMER_FACTORY).isEmpty());
+    }
+
+    private static byte[] stylesheet(String name) {
+        return ("<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+            "<xsl:template match=\"/\"><" + name + "/></xsl:template></xsl:stylesheet>").getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class ProfilerTest {
+
+    private static final byte[] STYLESHEET = ("<xsl:stylesheet version=\"2.0\" " +
+        "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" xmlns:f=\"urn:f\">\n" +
+        "<xsl:function name=\"f:fib\"><xsl:param name=\"n\"/>" +
+        "<xsl:sequence select=\"if ($n lt 2) then $n else f:fib($n - 1) + f:fib($n - 2)\"/></xsl:function>\n" +
+        "<xsl:template match=\"/\"><out><xsl:apply-templates/></out></xsl:template>\n" +
+        "<xsl:template match=\"item\"><fib><xsl:value-of select=\"f:fib(10)\"/></fib></xsl:template>\n" +
+        "</xsl:stylesheet>").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testTemplatesAndFunctionsAreProfiled() throws Exception {
+        Profiler profiler = new Profiler();
+        GoSaxonEngine engine = new GoSaxonEngine(false, new TemplatesCache(16, 1024 * 1024), new DocumentStore(0),
+            null, profiler);
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            engine.transform(new ByteArrayInputStream("<list><item/><item/></list>".getBytes(StandardCharsets.UTF_8)),
+                STYLESHEET, output);
+            Assertions.assertTrue(output.toString(StandardCharsets.UTF_8).contains("<fib>55</fib>"));
+        }
+        Assertions.assertEquals(2, profiler.getTransformations());
+
+        // fib(10) takes 177 calls, four times.
+        String report = profiler.getReport();
+        String functionLine = report.lines().filter(line -> line.contains("xsl:function name=\"f:fib\" (line 2)"))
+            .findFirst().orElseThrow();
+        Assertions.assertEquals(4 * 177, Long.parseLong(functionLine.trim().split("\\s+")[0]));
+        Assertions.assertTrue(report.contains("xsl:template match=\"item\" (line 4)"));
+        // The hottest location comes first.
+        Assertions.assertTrue(report.lines().skip(1).findFirst().orElseThrow().contains("f:fib"), report);
+
+        String collapsed = profiler.getCollapsedStacks();
+        Assertions.assertTrue(collapsed.lines().anyMatch(line -> line.startsWith(
+            "xsl:template match=\"/\" (line 3);literal-result-element name=\"out\" (line 3);xsl:apply-templates (line 3);" +
+                "xsl:template match=\"item\" (line 4);")), collapsed);
+        Assertions.assertTrue(collapsed.lines().allMatch(line -> line.matches(".* \\d+")), collapsed);
+        // Only the stylesheets of the profiling engine are compiled with tracing.
+        Assertions.assertFalse(PreinitializedSaxon.getConfiguration().isCompileWithTracing());
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class StylesheetStoreTest {
+
+    @Test
+    public void testStoredStylesheetIsUsedAfterRestart(@TempDir Path tempDir) throws Exception {
+        byte[] xslt = resource("/test.xslt");
+        StylesheetStore store = newStore(tempDir);
+        Assertions.assertEquals(0, store.load());
+        String compiled = transform(newEngine(store), xslt);
+        store.close();
+
+        StylesheetStore restarted = newStore(tempDir);
+        Assertions.assertEquals(1, restarted.load());
+        Assertions.assertEquals(compiled, transform(newEngine(restarted), xslt));
+        Assertions.assertEquals(1L, statistics(restarted).get("gosaxon_stylesheet_store_loads_total"));
+        restarted.close();
+    }
+
+    @Test
+    public void testDamagedStoreFallsBackToCompiling(@TempDir Path tempDir) throws Exception {
+        byte[] xslt = resource("/test.xslt");
+        StylesheetStore store = newStore(tempDir);
+        String compiled = transform(newEngine(store), xslt);
+        store.close();
+
+        byte[] content = Files.readAllBytes(store.getFile());
+        content[content.length / 2] ^= 0x01;
+        Files.write(store.getFile(), content);
+
+        StylesheetStore restarted = newStore(tempDir);
+        Assertions.assertEquals(0, restarted.load());
+        Assertions.assertEquals(1L, statistics(restarted).get("gosaxon_stylesheet_store_rejected_total"));
+        Assertions.assertEquals(compiled, transform(newEngine(restarted), xslt));
+        Assertions.assertEquals(0L, statistics(restarted).get("gosaxon_stylesheet_store_loads_total"));
+        restarted.close();
+    }
+
+    private StylesheetStore newStore(Path directory) throws IOException {
+        return new StylesheetStore(directory, 16, PreinitializedSaxon.getConfiguration(), false);
+    }
+
+    private GoSaxonEngine newEngine(StylesheetStore store) {
+        return new GoSaxonEngine(false, new TemplatesCache(16, 1024 * 1024), new DocumentStore(0), store);
+    }
+
+    private String transform(GoSaxonEngine engine, byte[] xslt) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        engine.transform(new ByteArrayInputStream(resource("/test.xml")), xslt, output);
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private Map<String, Number> statistics(StylesheetStore store) {
+        Map<String, Number> statistics = new LinkedHashMap<>();
+        store.collectStatistics(statistics);
+        return statistics;
+    }
+
+    private byte[] resource(String name) throws IOException {
+        try (InputStream inputStream = getClass().getResourceAsStream(name)) {
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+public class TemplatesCacheTest {
+
+    private static final byte[] STYLESHEET_A = stylesheet("a");
+    private static final byte[] STYLESHEET_B = stylesheet("b");
+    private static final byte[] STYLESHEET_C = stylesheet("c");
+
+    @Test
+    public void testHitsAndMisses() throws TransformerException {
+        TemplatesCache cache = new TemplatesCache(10, Long.MAX_VALUE);
+        Templates first = cache.get(STYLESHEET_A, TemplatesCacheTest::compile);
+        Templates second = cache.get(STYLESHEET_A.clone(), TemplatesCacheTest::compile);
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByCount() throws TransformerException {
+        TemplatesCache cache = new TemplatesCache(2, Long.MAX_VALUE);
+        cache.get(STYLESHEET_A, TemplatesCacheTest::compile);
+        cache.get(STYLESHEET_B, TemplatesCacheTest::compile);
+        // Touch "a" so "b" becomes the eldest entry.
+        cache.get(STYLESHEET_A, TemplatesCacheTest::compile);
+        cache.get(STYLESHEET_C, TemplatesCacheTest::compile);
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertEquals(1, cache.getEvictions());
+
+        cache.get(STYLESHEET_A, TemplatesCacheTest::compile);
+        Assertions.assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testEvictsByEstimatedMemory() throws TransformerException {
+        long entrySize = (long) STYLESHEET_A.length * TemplatesCache.ESTIMATED_EXPANSION_FACTOR;
+        TemplatesCache cache = new TemplatesCache(10, entrySize + 1);
+        cache.get(STYLESHEET_A, TemplatesCacheTest::compile);
+        cache.get(STYLESHEET_B, TemplatesCacheTest::compile);
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        TemplatesCache cache = new TemplatesCache(10, Long.MAX_VALUE);
+        byte[] broken = "<xsl:stylesheet".getBytes(StandardCharsets.UTF_8);
+        Assertions.assertThrows(TransformerException.class, () -> cache.get(broken, TemplatesCacheTest::compile));
+        Assertions.assertThrows(TransformerException.class, () -> cache.get(broken, TemplatesCacheTest::compile));
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(2, cache.getMisses());
+    }
+
+    private static Templates compile(byte[] stylesheet) throws TransformerException {
+        return new net.sf.saxon.TransformerFactoryImpl().newTemplates(new StreamSource(new ByteArrayInputStream(stylesheet)));
+    }
+
+    private static byte[] stylesheet(String name) {
+        return ("<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+            "<xsl:template match=\"/\"><" + name + "/></xsl:template></xsl:stylesheet>").getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.github.chrisdutz.gosaxon;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class WorkerPoolTest {
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        WorkerPool pool = new WorkerPool(1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<String> running = pool.submit(() -> {
+                started.countDown();
+                release.await();
+                return "running";
+            });
+            started.await();
+            Future<String> queued = pool.submit(() -> "queued");
+            Assertions.assertEquals(1, pool.getQueueDepth());
+
+            Assertions.assertThrows(RejectedExecutionException.class, () -> pool.submit(() -> "rejected"));
+            Assertions.assertEquals(1, pool.getRejected());
+
+            release.countDown();
+            Assertions.assertEquals("running", running.get());
+            Assertions.assertEquals("queued", queued.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSubmitWhenAvailableWaitsForQueue() throws Exception {
+        WorkerPool pool = new WorkerPool(1, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<String> running = pool.submit(() -> {
+                started.countDown();
+                release.await();
+                return "running";
+            });
+            started.await();
+            CompletableFuture<Future<String>> waiting = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return pool.submitWhenAvailable(() -> "waited");
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Assertions.assertThrows(TimeoutException.class, () -> waiting.get(200, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            Assertions.assertEquals("running", running.get());
+            Assertions.assertEquals("waited", waiting.get(5, TimeUnit.SECONDS).get());
+            Assertions.assertEquals(0, pool.getRejected());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}